@@ -0,0 +1,26 @@
+package org.deeplearning4j.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON (target/jmh-result.json unless -rff is given).<br>
+ * Accepts the usual JMH command line, e.g. a benchmark name regex or -p batchSize=64 to narrow a run down.
+ * <p>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar [JMH options]
+ */
+public class BenchmarkRunner {
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    Options options = new OptionsBuilder()
+            .parent(commandLine)
+            .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+            .result(commandLine.getResult().orElse("target/jmh-result.json"))
+            .build();
+    new Runner(options).run();
+  }
+}
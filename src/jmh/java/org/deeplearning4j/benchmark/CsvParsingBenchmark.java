@@ -0,0 +1,63 @@
+package org.deeplearning4j.benchmark;
+
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.word2vecsentiment.DealTest;
+import org.deeplearning4j.word2vecsentiment.SentimentIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to parse a 10,000 review CSV file: the training format in the SentimentIterator constructor and the test
+ * format in DealTest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvParsingBenchmark {
+  private static final int NUM_REVIEWS = 10000;
+
+  private SyntheticCorpus corpus;
+  private WordVectors wordVectors;
+  private File trainCsv;
+  private File testCsv;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    corpus = new SyntheticCorpus(42);
+    wordVectors = corpus.loadWordVectors();
+    trainCsv = corpus.writeTrainCsv(NUM_REVIEWS);
+    testCsv = corpus.writeTestCsv(NUM_REVIEWS);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    corpus.delete();
+  }
+
+  @Benchmark
+  public SentimentIterator sentimentIteratorConstructor() throws IOException {
+    return new SentimentIterator(trainCsv.getPath(), wordVectors, 64, 300, true);
+  }
+
+  @Benchmark
+  public DealTest dealTestConstructor() {
+    return new DealTest(testCsv.getPath());
+  }
+}
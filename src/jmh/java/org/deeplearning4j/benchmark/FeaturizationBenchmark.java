@@ -0,0 +1,76 @@
+package org.deeplearning4j.benchmark;
+
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.word2vecsentiment.SentimentExampleIterator;
+import org.deeplearning4j.word2vecsentiment.SentimentIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to vectorize one review with loadFeaturesFromString, for short and long reviews
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FeaturizationBenchmark {
+  private static final int TRUNCATE_LENGTH = 300;
+
+  @Param({"10", "300"})
+  public int reviewLength;
+
+  private SyntheticCorpus corpus;
+  private SentimentIterator sentimentIterator;
+  private SentimentExampleIterator exampleIterator;
+  private String[] reviews;
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    corpus = new SyntheticCorpus(42);
+    WordVectors wordVectors = corpus.loadWordVectors();
+    sentimentIterator = new SentimentIterator(wordVectors, 1, TRUNCATE_LENGTH);
+    exampleIterator = new SentimentExampleIterator(corpus.writeImdbLayout(2).getPath(), wordVectors, 1, TRUNCATE_LENGTH, true);
+    reviews = new String[256];
+    for (int i = 0; i < reviews.length; i++) {
+      reviews[i] = corpus.review(reviewLength);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    corpus.delete();
+  }
+
+  private String nextReview() {
+    next = (next + 1) % reviews.length;
+    return reviews[next];
+  }
+
+  @Benchmark
+  public INDArray sentimentIteratorLoadFeaturesFromString() {
+    return sentimentIterator.loadFeaturesFromString(nextReview(), TRUNCATE_LENGTH);
+  }
+
+  @Benchmark
+  public INDArray sentimentExampleIteratorLoadFeaturesFromString() {
+    return exampleIterator.loadFeaturesFromString(nextReview(), TRUNCATE_LENGTH);
+  }
+}
@@ -0,0 +1,78 @@
+package org.deeplearning4j.benchmark;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.utilities.Params;
+import org.deeplearning4j.word2vecsentiment.DealTest;
+import org.deeplearning4j.word2vecsentiment.LoadWord2VecSentimentRNN;
+import org.deeplearning4j.word2vecsentiment.SentimentIterator;
+import org.deeplearning4j.word2vecsentiment.TestData;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to score 256 test reviews: one net.output call per review (LoadTestData without batchedScoring) versus
+ * length-sorted masked minibatches (LoadWord2VecSentimentRNN.scoreBatched)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InferenceBenchmark {
+  private static final int NUM_REVIEWS = 256;
+
+  @Param({"50", "300"})
+  public int truncateLength;
+
+  private SyntheticCorpus corpus;
+  private MultiLayerNetwork net;
+  private SentimentIterator featurizer;
+  private List<TestData> testData;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    corpus = new SyntheticCorpus(42);
+    featurizer = new SentimentIterator(corpus.loadWordVectors(), Params.scoreBatchSize, truncateLength);
+    testData = new DealTest(corpus.writeTestCsv(NUM_REVIEWS).getPath()).getTestDataList();
+    net = SyntheticCorpus.network(42);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    corpus.delete();
+  }
+
+  @Benchmark
+  public void singleOutput(Blackhole blackhole) {
+    for (TestData record : testData) {
+      INDArray networkOutput = net.output(featurizer.loadFeaturesFromString(record.getReview(), truncateLength));
+      int timeSeriesLength = (int) networkOutput.size(2);
+      blackhole.consume(networkOutput.get(NDArrayIndex.point(0), NDArrayIndex.all(), NDArrayIndex.point(timeSeriesLength - 1)).getDouble(0));
+    }
+  }
+
+  @Benchmark
+  public List<TestData> batchedOutput() {
+    LoadWord2VecSentimentRNN.scoreBatched(net, featurizer, testData, Params.scoreBatchSize, truncateLength);
+    return testData;
+  }
+}
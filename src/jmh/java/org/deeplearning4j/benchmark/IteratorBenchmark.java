@@ -0,0 +1,73 @@
+package org.deeplearning4j.benchmark;
+
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.word2vecsentiment.SentimentExampleIterator;
+import org.deeplearning4j.word2vecsentiment.SentimentIterator;
+import org.nd4j.linalg.dataset.DataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build one training minibatch with SentimentIterator (CSV corpus) and SentimentExampleIterator (one file
+ * per review), for several batch sizes and truncate lengths
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IteratorBenchmark {
+  @Param({"16", "64", "256"})
+  public int batchSize;
+
+  @Param({"50", "300"})
+  public int truncateLength;
+
+  private SyntheticCorpus corpus;
+  private SentimentIterator sentimentIterator;
+  private SentimentExampleIterator exampleIterator;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    corpus = new SyntheticCorpus(42);
+    WordVectors wordVectors = corpus.loadWordVectors();
+    sentimentIterator = new SentimentIterator(corpus.writeTrainCsv(2000).getPath(), wordVectors, batchSize, truncateLength, true);
+    exampleIterator = new SentimentExampleIterator(corpus.writeImdbLayout(2000).getPath(), wordVectors, batchSize, truncateLength, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    corpus.delete();
+  }
+
+  @Benchmark
+  public DataSet sentimentIteratorNext() {
+    if (!sentimentIterator.hasNext()) {
+      sentimentIterator.reset();
+    }
+    return sentimentIterator.next();
+  }
+
+  @Benchmark
+  public DataSet sentimentExampleIteratorNext() {
+    if (!exampleIterator.hasNext()) {
+      exampleIterator.reset();
+    }
+    return exampleIterator.next();
+  }
+}
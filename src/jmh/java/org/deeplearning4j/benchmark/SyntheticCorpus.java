@@ -0,0 +1,155 @@
+package org.deeplearning4j.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Offline benchmark data: a small random word-vector model, sentiment CSV files in the formats read by
+ * SentimentIterator and DealTest, the aclImdb directory layout read by SentimentExampleIterator, and a randomly
+ * initialized network of the same shape as the one trained in MyWord2VecSentimentRNN.<br>
+ * Everything is generated from a fixed seed into a temporary directory, so runs are comparable across commits.
+ */
+public class SyntheticCorpus {
+  public static final int VOCAB_SIZE = 5000;
+  public static final int VECTOR_SIZE = 50;
+
+  private final File dir;
+  private final Random random;
+  private final String[] words;
+
+  public SyntheticCorpus(long seed) throws IOException {
+    this.dir = Files.createTempDirectory("sentiment-bench").toFile();
+    this.random = new Random(seed);
+    this.words = new String[VOCAB_SIZE];
+    for (int i = 0; i < words.length; i++) {
+      //Letters only: CommonPreprocessor strips digits and punctuation
+      StringBuilder sb = new StringBuilder();
+      for (int n = i; sb.length() == 0 || n > 0; n /= 26) {
+        sb.append((char) ('a' + n % 26));
+      }
+      words[i] = sb.append("w").toString();
+    }
+  }
+
+  /**
+   * Random review of exactly numWords words; about 1 in 10 words is not in the vocabulary
+   */
+  public String review(int numWords) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numWords; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(random.nextInt(10) == 0 ? "unknownword" : words[random.nextInt(words.length)]);
+    }
+    return sb.toString();
+  }
+
+  private int randomLength() {
+    return 5 + random.nextInt(400);
+  }
+
+  /**
+   * Word vectors in the word2vec text format, with uniformly random components
+   */
+  public File writeWordVectors() throws IOException {
+    File file = new File(dir, "vectors.txt");
+    try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      pw.println(VOCAB_SIZE + " " + VECTOR_SIZE);
+      for (String word : words) {
+        pw.print(word);
+        for (int d = 0; d < VECTOR_SIZE; d++) {
+          pw.print(' ');
+          pw.print((float) (random.nextDouble() * 2 - 1));
+        }
+        pw.println();
+      }
+    }
+    return file;
+  }
+
+  public WordVectors loadWordVectors() throws IOException {
+    return WordVectorSerializer.loadStaticModel(writeWordVectors());
+  }
+
+  /**
+   * Training CSV in the SentimentIterator format: id,review,Positive|Negative
+   */
+  public File writeTrainCsv(int numReviews) throws IOException {
+    File file = new File(dir, "train-" + numReviews + ".csv");
+    try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      for (int i = 0; i < numReviews; i++) {
+        pw.println(i + "," + review(randomLength()) + "," + (i % 2 == 0 ? "Positive" : "Negative"));
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Test CSV in the DealTest format: id,review
+   */
+  public File writeTestCsv(int numReviews) throws IOException {
+    File file = new File(dir, "test-" + numReviews + ".csv");
+    try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+      for (int i = 0; i < numReviews; i++) {
+        pw.println(i + "," + review(randomLength()));
+      }
+    }
+    return file;
+  }
+
+  /**
+   * One file per review under aclImdb/train/pos and aclImdb/train/neg, as read by SentimentExampleIterator
+   *
+   * @return The data directory to pass to SentimentExampleIterator
+   */
+  public File writeImdbLayout(int numReviews) throws IOException {
+    File root = new File(dir, "imdb-" + numReviews);
+    File pos = new File(root, "aclImdb/train/pos");
+    File neg = new File(root, "aclImdb/train/neg");
+    FileUtils.forceMkdir(pos);
+    FileUtils.forceMkdir(neg);
+    for (int i = 0; i < numReviews; i++) {
+      File file = new File(i % 2 == 0 ? pos : neg, i + "_" + (1 + random.nextInt(10)) + ".txt");
+      FileUtils.writeStringToFile(file, review(randomLength()), StandardCharsets.UTF_8);
+    }
+    return root;
+  }
+
+  /**
+   * Randomly initialized LSTM(256) + RnnOutputLayer network over VECTOR_SIZE inputs
+   */
+  public static MultiLayerNetwork network(long seed) {
+    MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+            .seed(seed)
+            .weightInit(WeightInit.XAVIER)
+            .list()
+            .layer(0, new LSTM.Builder().nIn(VECTOR_SIZE).nOut(256).activation(Activation.TANH).build())
+            .layer(1, new RnnOutputLayer.Builder().activation(Activation.SOFTMAX)
+                    .lossFunction(LossFunctions.LossFunction.MCXENT).nIn(256).nOut(2).build())
+            .pretrain(false).backprop(true).build();
+    MultiLayerNetwork net = new MultiLayerNetwork(conf);
+    net.init();
+    return net;
+  }
+
+  public void delete() {
+    FileUtils.deleteQuietly(dir);
+  }
+}
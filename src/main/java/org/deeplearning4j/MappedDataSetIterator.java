@@ -0,0 +1,323 @@
+package org.deeplearning4j;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * DataSetIterator over a preprocessed data set stored as one flat file, so epochs neither decode nor normalize
+ * anything again.
+ * <p>
+ * {@link #convert} writes the examples of another iterator once, in a random order: a header (magic, tag, example
+ * count, feature count, label count, label names, data offset), then, 4 KB aligned, the features as one float row per
+ * example and the labels as one float row per example, both in native byte order.
+ * <p>
+ * The file is memory-mapped read-only, and every minibatch is an INDArray directly on the mapped pages: nothing is
+ * copied or allocated per minibatch apart from the array headers. With a preprocessor set, each minibatch is copied
+ * to the heap first, since preprocessors change minibatches in place and the mapped pages are read-only and shared
+ * by every epoch. Minibatches are fixed blocks of consecutive rows. Since the rows
+ * were shuffled when the file was written, shuffling only reorders these blocks every epoch.
+ */
+public class MappedDataSetIterator implements DataSetIterator {
+    private static final long serialVersionUID = 1L;
+    private static final int MAGIC = 0x4d445331;
+    private static final int ALIGNMENT = 4096;
+
+    private final int batchSize;
+    private final int numExamples;
+    private final int numFeatures;
+    private final int numLabels;
+    private final List<String> labels;
+    private final ByteBuffer[] featureSegments;
+    private final ByteBuffer[] labelSegments;
+    private final int blocksPerSegment;
+    private final int[] blockOrder;
+    private final Random random;
+    private int cursor = 0;
+    private DataSetPreProcessor preProcessor;
+
+    /**
+     * @param file      File written by {@link #convert}
+     * @param batchSize Examples per minibatch
+     * @param shuffle   Visit the minibatches in a new random order every epoch
+     * @param seed      Seed of the minibatch order
+     */
+    public MappedDataSetIterator(File file, int batchSize, boolean shuffle, long seed) throws IOException {
+        this.batchSize = batchSize;
+        long dataOffset;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a mapped data set file: " + file);
+            }
+            in.readUTF();
+            numExamples = in.readInt();
+            numFeatures = in.readInt();
+            numLabels = in.readInt();
+            int numNames = in.readInt();
+            List<String> names = new ArrayList<>(numNames);
+            for (int i = 0; i < numNames; i++) {
+                names.add(in.readUTF());
+            }
+            labels = numNames == 0 ? null : names;
+            dataOffset = in.readLong();
+        }
+
+        //Whole minibatches per segment, so no minibatch straddles two mappings
+        blocksPerSegment = (int) Math.max(1, Integer.MAX_VALUE / (4L * numFeatures * batchSize));
+        int numBlocks = (numExamples + batchSize - 1) / batchSize;
+        int numSegments = (numBlocks + blocksPerSegment - 1) / blocksPerSegment;
+        featureSegments = new ByteBuffer[numSegments];
+        labelSegments = new ByteBuffer[numSegments];
+        long labelOffset = dataOffset + 4L * numFeatures * numExamples;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            for (int s = 0; s < numSegments; s++) {
+                long firstRow = (long) s * blocksPerSegment * batchSize;
+                long rows = Math.min((long) blocksPerSegment * batchSize, numExamples - firstRow);
+                featureSegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + 4L * numFeatures * firstRow,
+                        4L * numFeatures * rows).order(ByteOrder.nativeOrder());
+                labelSegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, labelOffset + 4L * numLabels * firstRow,
+                        4L * numLabels * rows).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        blockOrder = new int[numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            blockOrder[b] = b;
+        }
+        random = shuffle ? new Random(seed) : null;
+        shuffleBlocks();
+    }
+
+    /**
+     * @return True if file exists and was converted with this tag
+     */
+    public static boolean isCurrent(File file, String tag) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC && in.readUTF().equals(tag);
+        }
+    }
+
+    /**
+     * Write every example of source to file, in a random order (temporary file, then rename)
+     *
+     * @param source      Iterator with 2d features and labels
+     * @param numExamples Number of examples source returns
+     * @param tag         Identifies the source, see {@link #isCurrent}
+     * @param seed        Seed of the example order
+     */
+    public static void convert(DataSetIterator source, int numExamples, File file, String tag, long seed)
+            throws IOException {
+        int[] rowOf = new int[numExamples];
+        for (int i = 0; i < numExamples; i++) {
+            rowOf[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = numExamples - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = rowOf[i];
+            rowOf[i] = rowOf[j];
+            rowOf[j] = tmp;
+        }
+
+        source.reset();
+        List<String> names = source.getLabels();
+        File tmp = new File(file.getPath() + ".tmp");
+        int numFeatures = -1;
+        int numLabels = -1;
+        long dataOffset = 0;
+        int example = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            while (source.hasNext()) {
+                DataSet batch = source.next();
+                INDArray features = batch.getFeatures();
+                INDArray batchLabels = batch.getLabels();
+                if (features.rank() != 2 || batchLabels.rank() != 2) {
+                    throw new IOException("Only 2d features and labels can be cached, got " + features.rank() + "d");
+                }
+                if (numFeatures < 0) {
+                    numFeatures = features.columns();
+                    numLabels = batchLabels.columns();
+                    byte[] header = header(tag, numExamples, numFeatures, numLabels, names);
+                    channel.write(ByteBuffer.wrap(header), 0);
+                    dataOffset = (header.length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+                }
+                float[] featureData = features.dup('c').data().asFloat();
+                float[] labelData = batchLabels.dup('c').data().asFloat();
+                ByteBuffer featureRow = ByteBuffer.allocate(4 * numFeatures).order(ByteOrder.nativeOrder());
+                ByteBuffer labelRow = ByteBuffer.allocate(4 * numLabels).order(ByteOrder.nativeOrder());
+                for (int i = 0; i < features.rows(); i++, example++) {
+                    if (example >= numExamples) {
+                        throw new IOException("Source has more than the expected " + numExamples + " examples");
+                    }
+                    featureRow.clear();
+                    featureRow.asFloatBuffer().put(featureData, i * numFeatures, numFeatures);
+                    channel.write(featureRow, dataOffset + 4L * numFeatures * rowOf[example]);
+                    labelRow.clear();
+                    labelRow.asFloatBuffer().put(labelData, i * numLabels, numLabels);
+                    channel.write(labelRow, dataOffset + 4L * numFeatures * numExamples + 4L * numLabels * rowOf[example]);
+                }
+            }
+        }
+        if (example != numExamples) {
+            throw new IOException("Source has " + example + " examples, expected " + numExamples);
+        }
+        source.reset();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Header bytes, ending with the offset of the feature rows: the header size rounded up to the alignment
+     */
+    private static byte[] header(String tag, int numExamples, int numFeatures, int numLabels, List<String> names)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(tag);
+            out.writeInt(numExamples);
+            out.writeInt(numFeatures);
+            out.writeInt(numLabels);
+            out.writeInt(names == null ? 0 : names.size());
+            if (names != null) {
+                for (String name : names) {
+                    out.writeUTF(name);
+                }
+            }
+            out.writeLong((out.size() + 8 + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void shuffleBlocks() {
+        if (random == null) {
+            return;
+        }
+        for (int i = blockOrder.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = blockOrder[i];
+            blockOrder[i] = blockOrder[j];
+            blockOrder[j] = tmp;
+        }
+    }
+
+    /**
+     * Array on rows [row, row + rows) of a segment, without copying
+     */
+    private static INDArray wrap(ByteBuffer segment, int row, int rows, int columns) {
+        ByteBuffer slice = segment.duplicate();
+        slice.position(4 * row * columns);
+        slice = slice.slice().order(ByteOrder.nativeOrder());
+        DataBuffer buffer = Nd4j.createBuffer(slice, DataBuffer.Type.FLOAT, rows * columns);
+        return Nd4j.create(buffer, new int[]{rows, columns});
+    }
+
+    @Override
+    public DataSet next(int num) {
+        if (num != batchSize) {
+            throw new UnsupportedOperationException("Minibatches are fixed blocks of " + batchSize + " examples");
+        }
+        return next();
+    }
+
+    @Override
+    public DataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int block = blockOrder[cursor++];
+        int segment = block / blocksPerSegment;
+        int row = (block % blocksPerSegment) * batchSize;
+        int rows = Math.min(batchSize, numExamples - block * batchSize);
+        DataSet dataSet = new DataSet(wrap(featureSegments[segment], row, rows, numFeatures),
+                wrap(labelSegments[segment], row, rows, numLabels));
+        if (preProcessor != null) {
+            dataSet = new DataSet(dataSet.getFeatures().dup(), dataSet.getLabels().dup());
+            preProcessor.preProcess(dataSet);
+        }
+        return dataSet;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < blockOrder.length;
+    }
+
+    @Override
+    public int inputColumns() {
+        return numFeatures;
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return numLabels;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        //Nothing to prefetch: a minibatch is ready as soon as it is asked for
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        cursor = 0;
+        shuffleBlocks();
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return labels == null ? null : Collections.unmodifiableList(labels);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,153 @@
+package org.deeplearning4j;
+
+import org.deeplearning4j.earlystopping.scorecalc.base.BaseScoreCalculator;
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.eval.ROCMultiClass;
+import org.deeplearning4j.nn.conf.layers.BaseOutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.TimeSeriesUtils;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.List;
+
+/**
+ * Early stopping score calculator that computes the loss, an Evaluation and a ROCMultiClass from one forward pass
+ * over the data, instead of DataSetLossCalculator, network.evaluate and network.evaluateROCMultiClass each doing their
+ * own pass.
+ * <p>
+ * The loss is the one DataSetLossCalculator reports (loss function of the output layer plus L1/L2 regularization),
+ * computed from the network output: for a softmax output layer the output is passed back through the softmax as
+ * log(output), which gives the same value including the clipping of the loss function; for other activations the
+ * loss function gets the output with the identity activation.
+ * <p>
+ * After {@link #calculateScore} the metrics of that pass are available from {@link #getEvaluation()} and
+ * {@link #getRocMultiClass()}.
+ */
+public class SinglePassEvaluator extends BaseScoreCalculator<MultiLayerNetwork> {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean average;
+    private transient Evaluation evaluation;
+    private transient ROCMultiClass rocMultiClass;
+    private transient MultiLayerNetwork evaluatedNetwork;
+    private int evaluatedIteration = -1;
+    private double lastScore;
+
+    /**
+     * @param iterator Data to evaluate on
+     * @param average  Score is the average loss per example (true) or the summed loss (false), as in DataSetLossCalculator
+     */
+    public SinglePassEvaluator(DataSetIterator iterator, boolean average) {
+        super(iterator);
+        this.average = average;
+    }
+
+    @Override
+    public double calculateScore(MultiLayerNetwork network) {
+        lastScore = super.calculateScore(network);
+        evaluatedNetwork = network;
+        evaluatedIteration = network.getIterationCount();
+        return lastScore;
+    }
+
+    /**
+     * Run a pass on network unless the last pass already was on network in its current state (same iteration count),
+     * e.g. when early stopping scored the final epoch
+     *
+     * @return Score of the pass
+     */
+    public double evaluateIfStale(MultiLayerNetwork network) {
+        if (network != evaluatedNetwork || network.getIterationCount() != evaluatedIteration) {
+            return calculateScore(network);
+        }
+        return lastScore;
+    }
+
+    @Override
+    protected void reset() {
+        List<String> labels = iterator.getLabels();
+        evaluation = labels == null ? new Evaluation() : new Evaluation(labels, 1);
+        rocMultiClass = new ROCMultiClass(0);
+        scoreSum = 0;
+        minibatchCount = 0;
+        exampleCount = 0;
+    }
+
+    @Override
+    protected INDArray output(MultiLayerNetwork network, INDArray input, INDArray fMask, INDArray lMask) {
+        return network.output(input, false, fMask, lMask);
+    }
+
+    @Override
+    protected INDArray[] output(MultiLayerNetwork network, INDArray[] input, INDArray[] fMask, INDArray[] lMask) {
+        return arr(output(network, get0(input), get0(fMask), get0(lMask)));
+    }
+
+    @Override
+    protected double scoreMinibatch(MultiLayerNetwork network, INDArray[] features, INDArray[] labels,
+                                    INDArray[] fMask, INDArray[] lMask, INDArray[] output) {
+        INDArray l = get0(labels);
+        INDArray out = get0(output);
+        INDArray mask = get0(lMask);
+        if (out.rank() == 3) {
+            evaluation.evalTimeSeries(l, out, mask);
+            rocMultiClass.evalTimeSeries(l, out, mask);
+            l = TimeSeriesUtils.reshape3dTo2d(l);
+            out = TimeSeriesUtils.reshape3dTo2d(out);
+            mask = mask == null ? null : TimeSeriesUtils.reshapeTimeSeriesMaskToVector(mask);
+        } else {
+            evaluation.eval(l, out, mask);
+            rocMultiClass.eval(l, out, mask);
+        }
+
+        BaseOutputLayer outputLayer = (BaseOutputLayer) network.getOutputLayer().conf().getLayer();
+        ILossFunction lossFunction = outputLayer.getLossFn();
+        IActivation activation = outputLayer.getActivationFn();
+        INDArray preOutput;
+        if (activation instanceof ActivationSoftmax) {
+            //Masked time steps are all zero; the floor only keeps them finite, the loss function clips far above it
+            preOutput = Transforms.log(Transforms.max(out, 1e-30, true), false);
+        } else {
+            preOutput = out.dup();
+            activation = new ActivationIdentity();
+        }
+        double lossSum = lossFunction.computeScore(l, preOutput, activation, mask, false);
+        //network.score(DataSet) is (loss sum + L1 + L2) / examples, and BaseScoreCalculator sums score * examples
+        return lossSum + network.calcL1(true) + network.calcL2(true);
+    }
+
+    @Override
+    protected double finalScore(double scoreSum, int minibatchCount, int exampleCount) {
+        return average ? scoreSum / exampleCount : scoreSum;
+    }
+
+    @Override
+    public boolean minimizeScore() {
+        return true;
+    }
+
+    /**
+     * @return Evaluation of the last pass
+     */
+    public Evaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * @return ROC of the last pass, one curve per class
+     */
+    public ROCMultiClass getRocMultiClass() {
+        return rocMultiClass;
+    }
+
+    @Override
+    public String toString() {
+        return "SinglePassEvaluator(" + iterator + ",average=" + average + ")";
+    }
+}
@@ -0,0 +1,353 @@
+package org.deeplearning4j;
+
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.nativeblas.NativeOpsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Finds the batch size and thread counts that train a network configuration fastest on this machine.
+ * <p>
+ * Every combination of batch size, ND4J (OpenMP) threads and Java data threads is one short timed trial: a freshly
+ * initialized network fits minibatches from a new iterator until the trial time is up. A few minibatches are fitted
+ * before the clock starts, so JIT compilation and workspace allocation do not count. A trial reports the examples per
+ * second, the time until the smoothed minibatch loss first reached the target loss (counted from the first minibatch)
+ * and the peak off-heap memory above what was allocated before the trial: arrays allocated through JavaCPP plus the
+ * workspaces of the training thread, which JavaCPP does not count. A trial that fails, e.g. because the batch size
+ * does not fit into memory, is reported and skipped.
+ * <p>
+ * The best trial is the fastest to reach the target loss if any reached it, else the one with the most examples per
+ * second. {@link Trial#save} writes its settings to a properties file that the real run reads with {@link #load}.
+ * Saved with a fingerprint of the configuration, the settings are only loaded again for the same fingerprint.
+ */
+public class ThroughputTuner {
+    private static Logger log = LoggerFactory.getLogger(ThroughputTuner.class);
+    private static final int WARMUP_BATCHES = 3;
+    private static final double LOSS_SMOOTHING = 0.1;
+
+    private final MultiLayerConfiguration conf;
+    private final DataFactory data;
+    private final List<Trial> trials = new ArrayList<>();
+
+    /**
+     * Training data of one trial
+     */
+    public interface DataFactory {
+        /**
+         * @param batchSize   Examples per minibatch
+         * @param javaThreads Java threads preparing minibatches, for data pipelines that have them
+         */
+        DataSetIterator create(int batchSize, int javaThreads) throws Exception;
+
+        /**
+         * Release an iterator returned by {@link #create}, e.g. stop its threads
+         */
+        void release(DataSetIterator iterator);
+    }
+
+    /**
+     * @param conf Configuration of the network to train; every trial starts from a new network initialized from it
+     * @param data Training data for a batch size and number of Java threads
+     */
+    public ThroughputTuner(MultiLayerConfiguration conf, DataFactory data) {
+        this.conf = conf;
+        this.data = data;
+    }
+
+    /**
+     * Run one trial per combination of the grid. ND4J's thread count is restored afterwards.
+     *
+     * @param trialMillis Time each trial trains for, after the warm-up minibatches
+     * @param targetLoss  Smoothed minibatch loss the time to target is measured for. 0: throughput only
+     * @return Best trial, null if every trial failed
+     */
+    public Trial tune(int[] batchSizes, int[] nd4jThreads, int[] javaThreads, long trialMillis, double targetLoss) {
+        int originalThreads = NativeOpsHolder.getInstance().getDeviceNativeOps().ompGetMaxThreads();
+        try {
+            for (int batchSize : batchSizes) {
+                for (int threads : nd4jThreads) {
+                    for (int workers : javaThreads) {
+                        Trial trial = runTrial(batchSize, threads, workers, trialMillis, targetLoss);
+                        trials.add(trial);
+                        log.info("Trial {}", trial);
+                    }
+                }
+            }
+        } finally {
+            NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(originalThreads);
+        }
+
+        Trial best = null;
+        for (Trial trial : trials) {
+            if (trial.isBetterThan(best)) {
+                best = trial;
+            }
+        }
+        log.info("Best of {} trials: {}", trials.size(), best);
+        return best;
+    }
+
+    private Trial runTrial(int batchSize, int nd4jThreads, int javaThreads, long trialMillis, double targetLoss) {
+        System.gc();
+        long baseline = offHeapBytes();
+        Trial trial = new Trial(batchSize, nd4jThreads, javaThreads);
+        NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(nd4jThreads);
+        DataSetIterator iterator = null;
+        try {
+            MultiLayerNetwork net = new MultiLayerNetwork(conf.clone());
+            net.init();
+            iterator = data.create(batchSize, javaThreads);
+
+            long peak = 0;
+            double smoothedLoss = Double.NaN;
+            long first = System.currentTimeMillis();
+            long start = 0;
+            long examples = 0;
+            for (int batch = 0; ; batch++) {
+                if (batch == WARMUP_BATCHES) {
+                    start = System.currentTimeMillis();
+                } else if (batch > WARMUP_BATCHES && System.currentTimeMillis() - start >= trialMillis) {
+                    break;
+                }
+                if (!iterator.hasNext()) {
+                    iterator.reset();
+                }
+                DataSet minibatch = iterator.next();
+                net.fit(minibatch);
+                if (batch >= WARMUP_BATCHES) {
+                    examples += minibatch.numExamples();
+                }
+                double loss = net.score();
+                smoothedLoss = Double.isNaN(smoothedLoss) ? loss : smoothedLoss + LOSS_SMOOTHING * (loss - smoothedLoss);
+                if (targetLoss > 0 && trial.millisToTargetLoss < 0 && smoothedLoss <= targetLoss) {
+                    trial.millisToTargetLoss = System.currentTimeMillis() - first;
+                }
+                peak = Math.max(peak, offHeapBytes() - baseline);
+            }
+            trial.examplesPerSecond = examples * 1000.0 / Math.max(1, System.currentTimeMillis() - start);
+            trial.finalLoss = smoothedLoss;
+            trial.peakOffHeapBytes = peak;
+        } catch (Throwable t) {
+            //Mostly out of memory for a large batch size; the other trials still run
+            log.warn("Trial with batch size " + batchSize + ", " + nd4jThreads + " ND4J threads, " + javaThreads
+                    + " Java threads failed", t);
+            trial.failure = String.valueOf(t);
+        } finally {
+            if (iterator != null) {
+                data.release(iterator);
+            }
+            Nd4j.getWorkspaceManager().destroyAllWorkspacesForCurrentThread();
+        }
+        return trial;
+    }
+
+    /**
+     * @return Bytes allocated through JavaCPP plus the current size of this thread's workspaces
+     */
+    private static long offHeapBytes() {
+        long bytes = Pointer.totalBytes();
+        for (MemoryWorkspace workspace : Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread()) {
+            bytes += workspace.getCurrentSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Every trial run so far, in the order they ran
+     */
+    public List<Trial> getTrials() {
+        return Collections.unmodifiableList(trials);
+    }
+
+    /**
+     * @return Settings saved with {@link Trial#save}, null if file does not exist
+     */
+    public static Trial load(File file) throws IOException {
+        Properties properties = read(file);
+        return properties == null ? null : trial(properties);
+    }
+
+    /**
+     * @param fingerprint Fingerprint of the configuration the settings are wanted for
+     * @return Settings saved with {@link Trial#save(File, long)} for the same fingerprint, null if file does not exist
+     * or was tuned for another configuration
+     */
+    public static Trial load(File file, long fingerprint) throws IOException {
+        Properties properties = read(file);
+        if (properties == null) {
+            return null;
+        }
+        if (!Long.toHexString(fingerprint).equals(properties.getProperty("fingerprint"))) {
+            log.warn("Ignoring {}: it was tuned for another configuration", file);
+            return null;
+        }
+        return trial(properties);
+    }
+
+    private static Properties read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static Trial trial(Properties properties) {
+        Trial trial = new Trial(Integer.parseInt(properties.getProperty("batchSize")),
+                Integer.parseInt(properties.getProperty("nd4jThreads")),
+                Integer.parseInt(properties.getProperty("javaThreads")));
+        trial.examplesPerSecond = Double.parseDouble(properties.getProperty("examplesPerSecond", "0"));
+        trial.millisToTargetLoss = Long.parseLong(properties.getProperty("millisToTargetLoss", "-1"));
+        trial.peakOffHeapBytes = Long.parseLong(properties.getProperty("peakOffHeapBytes", "0"));
+        trial.finalLoss = Double.parseDouble(properties.getProperty("finalLoss", "NaN"));
+        return trial;
+    }
+
+    /**
+     * Settings and measurements of one trial
+     */
+    public static class Trial {
+        private final int batchSize;
+        private final int nd4jThreads;
+        private final int javaThreads;
+        private double examplesPerSecond;
+        private long millisToTargetLoss = -1;
+        private long peakOffHeapBytes;
+        private double finalLoss = Double.NaN;
+        private String failure;
+
+        private Trial(int batchSize, int nd4jThreads, int javaThreads) {
+            this.batchSize = batchSize;
+            this.nd4jThreads = nd4jThreads;
+            this.javaThreads = javaThreads;
+        }
+
+        private boolean isBetterThan(Trial other) {
+            if (failure != null) {
+                return false;
+            }
+            if (other == null) {
+                return true;
+            }
+            if (millisToTargetLoss >= 0 || other.millisToTargetLoss >= 0) {
+                return other.millisToTargetLoss < 0
+                        || (millisToTargetLoss >= 0 && millisToTargetLoss < other.millisToTargetLoss);
+            }
+            return examplesPerSecond > other.examplesPerSecond;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public int getNd4jThreads() {
+            return nd4jThreads;
+        }
+
+        public int getJavaThreads() {
+            return javaThreads;
+        }
+
+        public double getExamplesPerSecond() {
+            return examplesPerSecond;
+        }
+
+        /**
+         * @return Milliseconds from the first minibatch until the smoothed loss reached the target, -1 if it did not
+         */
+        public long getMillisToTargetLoss() {
+            return millisToTargetLoss;
+        }
+
+        /**
+         * @return Peak off-heap bytes above the allocations made before the trial
+         */
+        public long getPeakOffHeapBytes() {
+            return peakOffHeapBytes;
+        }
+
+        /**
+         * @return Error the trial failed with, null if it ran to the end
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * Use the ND4J thread count of this trial for the rest of the process
+         */
+        public void applyNd4jThreads() {
+            NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(nd4jThreads);
+        }
+
+        /**
+         * Write the settings and measurements as a properties file (temporary file, then rename)
+         */
+        public void save(File file) throws IOException {
+            store(file, properties());
+        }
+
+        /**
+         * Same as {@link #save(File)}, also storing the fingerprint of the configuration that was tuned, see
+         * {@link ThroughputTuner#load(File, long)}
+         */
+        public void save(File file, long fingerprint) throws IOException {
+            Properties properties = properties();
+            properties.setProperty("fingerprint", Long.toHexString(fingerprint));
+            store(file, properties);
+        }
+
+        private Properties properties() {
+            Properties properties = new Properties();
+            properties.setProperty("batchSize", String.valueOf(batchSize));
+            properties.setProperty("nd4jThreads", String.valueOf(nd4jThreads));
+            properties.setProperty("javaThreads", String.valueOf(javaThreads));
+            properties.setProperty("examplesPerSecond", String.valueOf(examplesPerSecond));
+            properties.setProperty("millisToTargetLoss", String.valueOf(millisToTargetLoss));
+            properties.setProperty("peakOffHeapBytes", String.valueOf(peakOffHeapBytes));
+            properties.setProperty("finalLoss", String.valueOf(finalLoss));
+            return properties;
+        }
+
+        private static void store(File file, Properties properties) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "Best settings found by ThroughputTuner");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public String toString() {
+            String settings = "batch size " + batchSize + ", " + nd4jThreads + " ND4J threads, " + javaThreads + " Java threads";
+            if (failure != null) {
+                return settings + ": failed (" + failure + ")";
+            }
+            return settings + String.format(": %.1f examples/sec, target loss %s, peak off-heap %d MB, loss %.4f",
+                    examplesPerSecond, millisToTargetLoss < 0 ? "not reached" : "after " + millisToTargetLoss + " ms",
+                    peakOffHeapBytes >> 20, finalLoss);
+        }
+    }
+}
@@ -4,7 +4,6 @@ import org.deeplearning4j.datasets.iterator.impl.EmnistDataSetIterator;
 import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
 import org.deeplearning4j.earlystopping.EarlyStoppingResult;
 import org.deeplearning4j.earlystopping.saver.LocalFileModelSaver;
-import org.deeplearning4j.earlystopping.scorecalc.DataSetLossCalculator;
 import org.deeplearning4j.earlystopping.termination.MaxEpochsTerminationCondition;
 import org.deeplearning4j.earlystopping.termination.MaxTimeIterationTerminationCondition;
 import org.deeplearning4j.earlystopping.trainer.EarlyStoppingTrainer;
@@ -23,6 +22,7 @@ import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 public class Trainer {
@@ -32,16 +32,34 @@ public class Trainer {
     static int numRows = 28;
     static int numColumns = 28;
     static int reportingInterval = 5;
+    static boolean mappedCache = true; // convert EMNIST once into a memory-mapped file in user.dir and train from it
+    static File tunedSettings = new File(System.getProperty("user.dir"), "emnist-tuned.properties"); // batch size and ND4J threads used instead of the defaults when present
+    static boolean tune = false; // time short trials over the grids below first and write the best settings to tunedSettings
+    static int[] tuneBatchSizes = {16, 32, 64, 128, 256};
+    static int[] tuneNd4jThreads = {1, 2, 4, 8};
+    static long tuneTrialMillis = 20000; // training time of each trial
+    static double tuneTargetLoss = 1.5; // smoothed minibatch loss each trial is timed to
 
-    public static void main(String... args) throws java.io.IOException {
-        // create the data iterators for emnist
-        DataSetIterator emnistTrain = new EmnistDataSetIterator(emnistSet, batchSize, true);
-        DataSetIterator emnistTest = new EmnistDataSetIterator(emnistSet, batchSize, false);
-
-        int outputNum = EmnistDataSetIterator.numLabels(emnistSet);
+    // iterator over the train or test set, from the memory-mapped cache if enabled (converted on first use)
+    static DataSetIterator emnistIterator(boolean train) throws java.io.IOException {
+        if (!mappedCache) {
+            return new EmnistDataSetIterator(emnistSet, batchSize, train);
+        }
+        String part = train ? "train" : "test";
+        File file = new File(System.getProperty("user.dir"), "emnist-" + emnistSet.name().toLowerCase() + "-" + part + ".bin");
+        String tag = "EMNIST " + emnistSet + " " + part;
+        if (!MappedDataSetIterator.isCurrent(file, tag)) {
+            System.out.println("Converting " + tag + " into " + file);
+            int numExamples = train ? EmnistDataSetIterator.numExamplesTrain(emnistSet) : EmnistDataSetIterator.numExamplesTest(emnistSet);
+            MappedDataSetIterator.convert(new EmnistDataSetIterator(emnistSet, 1024, train, rngSeed), numExamples, file, tag, rngSeed);
+        }
+        // only the training minibatches are visited in a new order every epoch
+        return new MappedDataSetIterator(file, batchSize, train, rngSeed);
+    }
 
-        // network configuration (not yet initialized)
-        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+    // network configuration (not yet initialized)
+    static MultiLayerConfiguration networkConfiguration(int outputNum) {
+        return new NeuralNetConfiguration.Builder()
                 .seed(rngSeed)
                 .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
                 .updater(new Adam())
@@ -61,6 +79,51 @@ public class Trainer {
                         .build())
                 .pretrain(false).backprop(true)
                 .build();
+    }
+
+    // trains the network on every combination of the tuning grids for a short time and saves the best settings
+    static void tuneThroughput(MultiLayerConfiguration conf) throws java.io.IOException {
+        final int defaultBatchSize = batchSize;
+        ThroughputTuner tuner = new ThroughputTuner(conf, new ThroughputTuner.DataFactory() {
+            @Override
+            public DataSetIterator create(int batchSize, int javaThreads) throws Exception {
+                Trainer.batchSize = batchSize;
+                return emnistIterator(true);
+            }
+
+            @Override
+            public void release(DataSetIterator iterator) {
+            }
+        });
+        // the mapped cache needs no Java threads to prepare minibatches, so only ND4J's threads are varied
+        ThroughputTuner.Trial best = tuner.tune(tuneBatchSizes, tuneNd4jThreads, new int[]{1}, tuneTrialMillis, tuneTargetLoss);
+        batchSize = defaultBatchSize;
+        for (ThroughputTuner.Trial trial : tuner.getTrials()) {
+            System.out.println(trial);
+        }
+        if (best != null) {
+            best.save(tunedSettings);
+            System.out.println("Saved " + best + " to " + tunedSettings);
+        }
+    }
+
+    public static void main(String... args) throws java.io.IOException {
+        int outputNum = EmnistDataSetIterator.numLabels(emnistSet);
+        MultiLayerConfiguration conf = networkConfiguration(outputNum);
+
+        if (tune) {
+            tuneThroughput(conf);
+        }
+        ThroughputTuner.Trial tuned = ThroughputTuner.load(tunedSettings);
+        if (tuned != null) {
+            System.out.println("Using tuned settings from " + tunedSettings + ": " + tuned);
+            batchSize = tuned.getBatchSize();
+            tuned.applyNd4jThreads();
+        }
+
+        // create the data iterators for emnist
+        DataSetIterator emnistTrain = emnistIterator(true);
+        DataSetIterator emnistTest = emnistIterator(false);
 
         // create the MLN
         MultiLayerNetwork network = new MultiLayerNetwork(conf);
@@ -69,13 +132,16 @@ public class Trainer {
         // pass a training listener that reports score every N iterations
         network.addListeners(new ScoreIterationListener(reportingInterval));
 
+        // scores every epoch for early stopping and keeps the Evaluation and ROC of the same pass
+        SinglePassEvaluator evaluator = new SinglePassEvaluator(emnistTest, true);
+
         // here we set up an early stopping trainer
         // early stopping is useful when your trainer runs for
         // a long time or you need to programmatically stop training
         EarlyStoppingConfiguration esConf = new EarlyStoppingConfiguration.Builder()
                 .epochTerminationConditions(new MaxEpochsTerminationCondition(5))
                 .iterationTerminationConditions(new MaxTimeIterationTerminationCondition(20, TimeUnit.MINUTES))
-                .scoreCalculator(new DataSetLossCalculator(emnistTest, true))
+                .scoreCalculator(evaluator)
                 .evaluateEveryNEpochs(1)
                 .modelSaver(new LocalFileModelSaver(System.getProperty("user.dir")))
                 .build();
@@ -91,14 +157,17 @@ public class Trainer {
         System.out.println("Best epoch number: " + result.getBestModelEpoch());
         System.out.println("Score at best epoch: " + result.getBestModelScore());
 
+        // metrics of the pass that scored the last epoch; only run again if training stopped in the middle of an epoch
+        evaluator.evaluateIfStale(network);
+
         // evaluate basic performance
-        Evaluation eval = network.evaluate(emnistTest);
+        Evaluation eval = evaluator.getEvaluation();
         System.out.println(eval.accuracy());
         System.out.println(eval.precision());
         System.out.println(eval.recall());
 
         // evaluate ROC and calculate the Area Under Curve
-        ROCMultiClass roc = network.evaluateROCMultiClass(emnistTest);
+        ROCMultiClass roc = evaluator.getRocMultiClass();
         System.out.println(roc.calculateAverageAUC());
 
         // calculate AUC for a single class
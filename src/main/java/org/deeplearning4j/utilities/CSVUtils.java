@@ -16,6 +16,7 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,4 +47,95 @@ public class CSVUtils {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Open a result file for appending. The ID,Pred header is only written if the file is new or empty.
+   */
+  public static CsvWriter openCsvAppender(String csvFilePath) throws IOException {
+    File file = new File(csvFilePath);
+    boolean writeHeader = !file.exists() || file.length() == 0;
+    CsvWriter csvWriter = new CsvWriter(new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file, true), Charset.forName("UTF-8"))), ',');
+    if (writeHeader) {
+      csvWriter.writeRecord(new String[]{"ID","Pred"});
+    }
+    return csvWriter;
+  }
+
+  /**
+   * Append records to a writer from {@link #openCsvAppender(String)} and flush them to disk
+   */
+  public static void appendRecords(CsvWriter csvWriter, List<TestData> testDataList) throws IOException {
+    for (TestData testData : testDataList) {
+      csvWriter.writeRecord(testData.toStrings());
+    }
+    csvWriter.flush();
+  }
+
+  /**
+   * Record which input file a result file is written for, in a sidecar file next to it (resultCsvPath + ".source")
+   */
+  public static void writeResultSource(String resultCsvPath, File input) throws IOException {
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(resultCsvPath + ".source"), Charset.forName("UTF-8")))) {
+      writer.write(sourceStamp(input));
+      writer.newLine();
+    }
+  }
+
+  /**
+   * @return True if the sidecar of the result file names input with its current length and last-modified time
+   */
+  public static boolean isResultOf(String resultCsvPath, File input) throws IOException {
+    File source = new File(resultCsvPath + ".source");
+    if (!source.isFile()) {
+      return false;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+      return sourceStamp(input).equals(reader.readLine());
+    }
+  }
+
+  private static String sourceStamp(File input) {
+    return input.length() + "," + input.lastModified() + "," + input.getAbsolutePath();
+  }
+
+  /**
+   * Find the ID of the last complete record of a result file, to resume an interrupted run.
+   * A partially written last line is cut off the file.
+   *
+   * @return The last ID, or null if the file does not exist or holds no records
+   */
+  public static Integer lastWrittenId(String csvFilePath) throws IOException {
+    File file = new File(csvFilePath);
+    if (!file.exists()) {
+      return null;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      long end = raf.length();
+      while (end > 0 && readByte(raf, end - 1) != '\n') {
+        end--;
+      }
+      raf.setLength(end);
+      long start = end - 1;
+      while (start > 0 && readByte(raf, start - 1) != '\n') {
+        start--;
+      }
+      if (start < 0) {
+        return null;
+      }
+      byte[] line = new byte[(int) (end - start)];
+      raf.seek(start);
+      raf.readFully(line);
+      String id = new String(line, Charset.forName("UTF-8")).trim();
+      int comma = id.indexOf(',');
+      id = comma >= 0 ? id.substring(0, comma) : id;
+      return id.matches("\\d+") ? Integer.valueOf(id) : null;
+    }
+  }
+
+  private static int readByte(RandomAccessFile raf, long position) throws IOException {
+    raf.seek(position);
+    return raf.read();
+  }
 }
\ No newline at end of file
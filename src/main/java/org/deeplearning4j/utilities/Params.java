@@ -11,6 +11,14 @@ public class Params {
   public static final int minWordFrequency =1;
   public static final int iterations = 5;
   public static final int windowSize = 5;
+  public static final boolean pretokenizedWord2Vec = false; //Tokenize word.txt once into a binary token-id file and train Word2Vec from it
+  public static final int word2vecWorkers = 4;        //Threads training Word2Vec from the token-id file, one corpus shard each
+  public static final boolean incrementalWord2Vec = false; //DealAll: update the model at WORD_VECTORS_PATH with word2vecDeltaPath instead of retraining
+  public static final int annLinks = 16;              //Links per word in the nearest-neighbour index saved next to the word vectors (2x on the bottom layer)
+  public static final int annEfConstruction = 200;    //Candidates considered for the links of each word while building the index
+  public static final int annEfSearch = 64;           //Candidates kept per nearest-neighbour query; higher: better recall, slower
+  public static final String word2vecDeltaPath = "E:\\chenyuan\\dataSets\\word_delta.txt"; //New sentences since the last Word2Vec run, one per line
+  public static final double word2vecUpdateLearningRate = 0.0025; //Learning rate an incremental Word2Vec update starts at, a tenth of a fresh run
 
 
   /**
@@ -18,6 +26,8 @@ public class Params {
    */
   public static final String DATA_PATH = "E:\\chenyuan\\dataSets\\20190520_train.csv";
   public static final String Test_DATA_PATH = "E:\\chenyuan\\dataSets\\20190520_test.csv";
+  /** Labelled reviews held out from training, same format as DATA_PATH */
+  public static final String VALIDATION_DATA_PATH = "E:\\chenyuan\\dataSets\\20190520_validation.csv";
   public static final String MODAL_PATH = "E:\\chenyuan\\dataSets\\trained_model.zip";
   /** Location (local file system) for the Google News vectors. Set this manually. */
   public static final String WORD_VECTORS_PATH = "E:\\chenyuan\\dataSets\\VectorModal50-5.bin";
@@ -28,6 +38,52 @@ public class Params {
   public static final int truncateReviewsToLength = 50;  //Truncate reviews with length (# words) greater than this
   public static final int seed = 0;     //Seed for reproducibility
 
+  public static final boolean batchedScoring = true;  //Score the test set in length-bucketed minibatches instead of one review at a time. Reference path; the legacy one scores padded reviews slightly differently
+  public static final int scoreBatchSize = 256;       //Number of reviews per forward pass when batchedScoring is on
+  public static final boolean streamingScoring = false; //Read, score and append results chunk by chunk
+  public static final boolean resumeStreamingScoring = false; //streamingScoring: continue after the last ID in resultCsvPath if it was written for the current Test_DATA_PATH. false: start over
+  public static final int streamChunkSize = 4096;     //Records per chunk when streamingScoring is on
+  public static final int streamQueueDepth = 4;       //Chunks buffered between the read, score and write stages
+  public static final int scoringThreads = 1;         //Threads scoring the test set, each with its own copy of the network. 1: score on the calling thread
+
+  public static final int prefetchWorkers = 4;        //Threads building training minibatches ahead of fit. 0: no prefetching
+  public static final int prefetchQueueDepth = 8;     //Maximum number of minibatches built ahead of fit
+  public static final int trainingReplicas = 1;       //Copies of the network trained in parallel with parameter averaging. 1: plain net.fit
+  public static final int averagingFrequency = 5;     //Minibatches each replica fits between two parameter averaging steps
+  public static final String checkpointDir = "E:\\chenyuan\\dataSets\\checkpoints"; //Training checkpoints; training resumes from the newest one. null: no checkpoints
+  public static final int checkpointEveryBatches = 500; //Minibatches between two checkpoints (single replica; replicas are checkpointed after every epoch)
+  public static final int checkpointsKept = 3;        //Newest checkpoints kept in checkpointDir
+  public static final int evaluationThreads = 4;      //Threads evaluating the trained network, each with its own copy of the network
+  public static final int evaluationSampleSize = 0;   //Evaluate a stratified sample of this many reviews, with confidence intervals. 0: every review
+  public static final boolean earlyStopping = false;  //Score every epoch on VALIDATION_DATA_PATH in the background, stop when it stops improving, keep the best model
+  public static final int earlyStoppingPatience = 3;  //Epochs without a better validation score before training stops
+  public static final int earlyStoppingMaxMinutes = 600; //Training time after which training stops at the end of the epoch
+  public static final String tunedSettingsPath = "E:\\chenyuan\\dataSets\\tuned.properties"; //Batch size, prefetchWorkers and ND4J threads used instead of the values here when present. null: not used
+  public static final boolean tuneThroughput = false; //Before training, time short trials over the grids below and write the best settings to tunedSettingsPath
+  public static final int[] tuneBatchSizes = {16, 32, 64, 128}; //Batch sizes tried by tuneThroughput
+  public static final int[] tuneNd4jThreads = {1, 2, 4}; //ND4J (OpenMP) thread counts tried by tuneThroughput
+  public static final int[] tunePrefetchWorkers = {0, 2, 4}; //prefetchWorkers values tried by tuneThroughput
+  public static final int tuneTrialSeconds = 30;      //Training time of each trial
+  public static final double tuneTargetLoss = 0.6;    //Smoothed minibatch loss each trial is timed to; the fastest to reach it wins. 0: most examples/sec wins
+  public static final int memoryBudgetMB = 0;        //Off-heap memory training may use; batch size and truncate length are lowered until the estimate fits. 0: no planning
+  public static final int memoryPlanMinBatchSize = 16; //Batch size the memory plan goes down to before it shortens the reviews instead
+  public static final double memoryDriftTolerance = 0.2; //Warn when off-heap usage during training exceeds the memory plan by more than this fraction
+  public static final boolean lengthBucketing = false; //Batch training reviews of similar length together, shuffle batch order per epoch
+  public static final boolean streamingCorpus = false; //Index the training CSV on disk instead of loading every review into the heap
+  public static final boolean corpusCache = false; //Keep the tokenized training reviews in DATA_PATH + ".tokcache.<key>" so later runs skip tokenization
+  public static final boolean indexInputModel = false; //Train a network with a frozen embedding layer fed with word indices instead of word vectors
+  public static final boolean quantizedEmbeddings = false; //Keep word vectors as int8 with a scale per word (WORD_VECTORS_PATH + ".int8"), dequantized into each minibatch
+  public static final boolean mappedWordVectors = false; //Memory-map WORD_VECTORS_PATH + ".mmap" (written on first use) instead of parsing the model on every start
+  public static final boolean pruneWordVectors = false; //With mappedWordVectors: keep only words of DATA_PATH, Test_DATA_PATH and VALIDATION_DATA_PATH. Other words become unknown
+
+  public static final int serverPort = 8090;          //Port of the local scoring service (bound to localhost only)
+  public static final int serverMaxBatch = 64;        //Maximum number of requests scored in one forward pass
+  public static final int serverMaxWaitMillis = 5;    //Maximum time a request waits for others to join its batch
+  public static final long serverRequestTimeoutMillis = 10000; //Maximum time a request waits for its scores; later: 503
+  public static final int serverMaxQueued = 4096;     //Maximum number of reviews waiting to be scored; more: 503
+
+  public static final String metricsPath = null;      //Pipeline timings and counters in the Prometheus text format, e.g. "E:\\chenyuan\\dataSets\\metrics.prom". null: not written
+  public static final int metricsFlushSeconds = 10;   //Interval between two writes of metricsPath
 
   public static final String resultCsvPath = "E:\\chenyuan\\dataSets\\result.csv";
 
@@ -0,0 +1,250 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
+import org.deeplearning4j.earlystopping.EarlyStoppingResult;
+import org.deeplearning4j.earlystopping.termination.EpochTerminationCondition;
+import org.deeplearning4j.earlystopping.termination.IterationTerminationCondition;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Early stopping with the termination conditions, score calculator and model saver of an
+ * {@link EarlyStoppingConfiguration}, like EarlyStoppingTrainer, but with the score computed on a background thread
+ * while the next epoch trains.<br>
+ * After every evaluated epoch the network is copied and the copy is scored, checked against the epoch termination
+ * conditions and, if it is the best so far, saved by the model saver. Iteration termination conditions are checked
+ * on the training thread after every minibatch (add this object as a training listener). The training loop asks
+ * {@link #shouldStop()} after every epoch; since the score of an epoch arrives while the next one trains, a
+ * score-based stop takes effect up to one epoch later than with EarlyStoppingTrainer. The best model is the same.<br>
+ * At most one copy waits while another is being scored: if an epoch finishes while the copy of the previous one is
+ * still waiting, that copy is dropped unscored, so memory stays bounded when scoring is slower than training.<br>
+ * {@link #progress()} is the scores and best epoch so far, for a training checkpoint; {@link #restore} continues from
+ * it in a resumed run, including the patience of the termination conditions.
+ */
+public class BackgroundEarlyStopping extends BaseTrainingListener {
+  private static Logger log = LoggerFactory.getLogger(BackgroundEarlyStopping.class);
+
+  private final EarlyStoppingConfiguration<MultiLayerNetwork> config;
+  private final ThreadPoolExecutor evaluator;
+  private final Map<Integer, Double> scoreVsEpoch = new LinkedHashMap<>();
+  //Evaluation that has not started yet, and the epoch it is for
+  private FutureTask<Void> waiting;
+  private int waitingEpoch;
+  private volatile EarlyStoppingResult.TerminationReason reason;
+  private volatile String details;
+  private int bestEpoch = -1;
+  private double bestScore;
+  private int epochsDone = 0;
+
+  /**
+   * Scores and best epoch of the epochs evaluated so far
+   */
+  public static class Progress implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final LinkedHashMap<Integer, Double> scoreVsEpoch;
+    private final int bestEpoch;
+    private final double bestScore;
+
+    private Progress(LinkedHashMap<Integer, Double> scoreVsEpoch, int bestEpoch, double bestScore) {
+      this.scoreVsEpoch = scoreVsEpoch;
+      this.bestEpoch = bestEpoch;
+      this.bestScore = bestScore;
+    }
+
+    /**
+     * @return Best epoch so far, -1 if none was evaluated
+     */
+    public int getBestEpoch() {
+      return bestEpoch;
+    }
+
+    public double getBestScore() {
+      return bestScore;
+    }
+  }
+
+  /**
+   * Initializes the termination conditions, so create it right before training starts
+   */
+  public BackgroundEarlyStopping(EarlyStoppingConfiguration<MultiLayerNetwork> config) {
+    this.config = config;
+    for (EpochTerminationCondition condition : config.getEpochTerminationConditions()) {
+      condition.initialize();
+    }
+    for (IterationTerminationCondition condition : config.getIterationTerminationConditions()) {
+      condition.initialize();
+    }
+    this.evaluator = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "early-stopping-evaluator");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+  }
+
+  /**
+   * Continue from the progress of an interrupted run: its scores are replayed through the epoch termination
+   * conditions, so a condition like ScoreImprovementEpochTerminationCondition counts the epochs without improvement
+   * from where it was. Call before the first {@link #epochDone}.
+   */
+  public void restore(Progress progress) {
+    synchronized (scoreVsEpoch) {
+      scoreVsEpoch.putAll(progress.scoreVsEpoch);
+      bestEpoch = progress.bestEpoch;
+      bestScore = progress.bestScore;
+    }
+    for (Map.Entry<Integer, Double> entry : progress.scoreVsEpoch.entrySet()) {
+      epochsDone = entry.getKey() + 1;
+      for (EpochTerminationCondition condition : config.getEpochTerminationConditions()) {
+        if (condition.terminate(entry.getKey(), entry.getValue())) {
+          stop(EarlyStoppingResult.TerminationReason.EpochTerminationCondition, condition.toString());
+        }
+      }
+    }
+    log.info("Early stopping: restored {} scores, best epoch {} with score {}", progress.scoreVsEpoch.size(),
+        progress.bestEpoch, progress.bestScore);
+  }
+
+  /**
+   * @return Scores and best epoch of the evaluations finished so far
+   */
+  public Progress progress() {
+    synchronized (scoreVsEpoch) {
+      return new Progress(new LinkedHashMap<>(scoreVsEpoch), bestEpoch, bestScore);
+    }
+  }
+
+  /**
+   * @return True if the score of epoch is known
+   */
+  public boolean isScored(int epoch) {
+    synchronized (scoreVsEpoch) {
+      return scoreVsEpoch.containsKey(epoch);
+    }
+  }
+
+  @Override
+  public void iterationDone(Model model, int iteration, int epoch) {
+    if (reason != null) {
+      return;
+    }
+    double score = model.score();
+    for (IterationTerminationCondition condition : config.getIterationTerminationConditions()) {
+      if (condition.terminate(score)) {
+        stop(EarlyStoppingResult.TerminationReason.IterationTerminationCondition, condition.toString());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Queue a copy of net for scoring after epoch (0-based) was trained, replacing the copy of an earlier epoch that is
+   * still waiting. Returns without waiting for the score.
+   */
+  public void epochDone(MultiLayerNetwork net, final int epoch) {
+    epochsDone = epoch + 1;
+    if (reason != null || epochsDone % Math.max(1, config.getEvaluateEveryNEpochs()) != 0) {
+      return;
+    }
+    if (waiting != null && evaluator.remove(waiting)) {
+      log.warn("Early stopping: epoch {} not evaluated, epoch {} is done while the one before is still being scored",
+          waitingEpoch, epoch);
+    }
+    final MultiLayerNetwork snapshot = net.clone();
+    waiting = new FutureTask<>(new Callable<Void>() {
+      @Override
+      public Void call() {
+        try {
+          evaluate(snapshot, epoch);
+        } catch (Exception e) {
+          log.error("Early stopping evaluation of epoch " + epoch + " failed", e);
+          stop(EarlyStoppingResult.TerminationReason.Error, String.valueOf(e));
+        }
+        return null;
+      }
+    });
+    waitingEpoch = epoch;
+    evaluator.execute(waiting);
+  }
+
+  private void evaluate(MultiLayerNetwork snapshot, int epoch) throws Exception {
+    long start = System.currentTimeMillis();
+    double score = config.getScoreCalculator().calculateScore(snapshot);
+    boolean minimize = config.getScoreCalculator().minimizeScore();
+    boolean best;
+    synchronized (scoreVsEpoch) {
+      best = bestEpoch < 0 || (minimize ? score < bestScore : score > bestScore);
+    }
+    if (best) {
+      config.getModelSaver().saveBestModel(snapshot, score);
+    }
+    //Recorded once the best model is saved, so a checkpoint never names a best epoch whose model is not on disk
+    synchronized (scoreVsEpoch) {
+      scoreVsEpoch.put(epoch, score);
+      if (best) {
+        bestScore = score;
+        bestEpoch = epoch;
+      }
+    }
+    if (config.isSaveLastModel()) {
+      config.getModelSaver().saveLatestModel(snapshot, score);
+    }
+    log.info("Early stopping: epoch {} score {}{}, evaluated in {} ms", epoch, score, best ? " (best)" : "",
+        System.currentTimeMillis() - start);
+    for (EpochTerminationCondition condition : config.getEpochTerminationConditions()) {
+      if (condition.terminate(epoch, score)) {
+        stop(EarlyStoppingResult.TerminationReason.EpochTerminationCondition, condition.toString());
+        return;
+      }
+    }
+  }
+
+  private synchronized void stop(EarlyStoppingResult.TerminationReason reason, String details) {
+    if (this.reason == null) {
+      this.details = details;
+      this.reason = reason;
+      log.info("Early stopping: {} ({})", reason, details);
+    }
+  }
+
+  /**
+   * @return True once a termination condition was met or an evaluation failed. Never waits for an evaluation.
+   */
+  public boolean shouldStop() {
+    return reason != null;
+  }
+
+  /**
+   * Wait for the queued evaluations and stop the evaluator thread
+   *
+   * @return Result with the best model as loaded from the model saver
+   */
+  public EarlyStoppingResult<MultiLayerNetwork> finish() throws Exception {
+    evaluator.shutdown();
+    evaluator.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    if (reason == null) {
+      //Ran out of epochs of the training loop itself
+      stop(EarlyStoppingResult.TerminationReason.EpochTerminationCondition, "Training loop finished");
+    }
+    Progress progress = progress();
+    MultiLayerNetwork bestModel = progress.bestEpoch < 0 ? null : config.getModelSaver().getBestModel();
+    return new EarlyStoppingResult<>(reason, details, progress.scoreVsEpoch, progress.bestEpoch, progress.bestScore,
+        epochsDone, bestModel);
+  }
+}
@@ -0,0 +1,268 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.memory.MemoryType;
+import org.deeplearning4j.nn.conf.memory.MemoryUseMode;
+import org.deeplearning4j.nn.conf.memory.NetworkMemoryReport;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates the off-heap memory of training on minibatches of a given batch size and truncate length, and picks the
+ * largest shape that fits into a memory budget.<br>
+ * A minibatch of {@link SentimentIterator} is features [batch, vectorSize (1 with index features), length], labels
+ * [batch, 2, length] and two masks [batch, length], all float; length is the longest review of the minibatch, at most
+ * the truncate length, which the estimate assumes. Every minibatch built ahead by prefetch workers or waiting in their
+ * queue is alive at the same time as the one being fitted. The network part (parameters, parameter gradients, updater
+ * state, activations and their gradients, working memory) comes from DL4J's memory report of the configuration for
+ * recurrent input of that length, once per training replica. DL4J has no such report for an embedding layer fed with
+ * sequences of word indices, so with index features the network is estimated as the word-vector network behind the
+ * embedding layer plus the word vectors it looks up.<br>
+ * {@link #plan} keeps the truncate length if it can: it lowers the batch size first, down to a minimum batch size,
+ * and only then shortens the reviews. {@link UsageMonitor} compares the real usage during training with the plan.
+ */
+public class BatchMemoryPlanner {
+  private static Logger log = LoggerFactory.getLogger(BatchMemoryPlanner.class);
+  private static final int FLOAT_BYTES = 4;
+
+  private final MultiLayerConfiguration conf;
+  private final int vectorSize;
+  private final boolean indexFeatures;
+  private final int bufferedBatches;
+  private final int replicas;
+
+  /**
+   * @param conf            Configuration of the network trained on word vectors (also with index features)
+   * @param vectorSize      Size of the word vectors
+   * @param indexFeatures   Minibatches hold word indices, looked up by an embedding layer in front of conf
+   * @param bufferedBatches Minibatches alive at once per replica: the one being fitted plus those built ahead
+   * @param replicas        Copies of the network trained in parallel
+   */
+  public BatchMemoryPlanner(MultiLayerConfiguration conf, int vectorSize, boolean indexFeatures, int bufferedBatches,
+                            int replicas) {
+    this.conf = conf;
+    this.vectorSize = vectorSize;
+    this.indexFeatures = indexFeatures;
+    this.bufferedBatches = Math.max(1, bufferedBatches);
+    this.replicas = Math.max(1, replicas);
+  }
+
+  /**
+   * @return Bytes of one minibatch of the iterator: features, labels and both masks
+   */
+  public long minibatchBytes(int batchSize, int length) {
+    return (long) FLOAT_BYTES * batchSize * length * ((indexFeatures ? 1 : vectorSize) + 2 + 2);
+  }
+
+  public Estimate estimate(int batchSize, int length) {
+    return estimate(conf.getMemoryReport(InputType.recurrent(vectorSize, length)), batchSize, length);
+  }
+
+  private Estimate estimate(NetworkMemoryReport report, int batchSize, int length) {
+    Estimate estimate = new Estimate(batchSize, length);
+    for (MemoryType type : MemoryType.values()) {
+      long bytes = replicas * report.getMemoryBytes(type, batchSize, MemoryUseMode.TRAINING, CacheMode.NONE,
+          DataBuffer.Type.FLOAT);
+      switch (type) {
+        case PARAMETERS:
+          estimate.parameterBytes += bytes;
+          break;
+        case PARAMATER_GRADIENTS:
+          estimate.gradientBytes += bytes;
+          break;
+        case UPDATER_STATE:
+          estimate.updaterBytes += bytes;
+          break;
+        default:
+          estimate.activationBytes += bytes;
+      }
+    }
+    if (indexFeatures) {
+      estimate.activationBytes += (long) replicas * FLOAT_BYTES * batchSize * vectorSize * length;
+    }
+    estimate.iteratorBytes = (long) replicas * bufferedBatches * minibatchBytes(batchSize, length);
+    return estimate;
+  }
+
+  /**
+   * Largest batch size and truncate length within budgetBytes: maxLength with the largest batch size up to
+   * maxBatchSize if at least minBatchSize fits, else the longest length at which minBatchSize fits
+   *
+   * @return Estimate of the chosen shape, null if not even minBatchSize reviews of length 1 fit
+   */
+  public Estimate plan(long budgetBytes, int maxBatchSize, int maxLength, int minBatchSize) {
+    minBatchSize = Math.max(1, Math.min(minBatchSize, maxBatchSize));
+    int length = maxLength;
+    if (!fits(budgetBytes, minBatchSize, length)) {
+      int shortest = 1;
+      if (!fits(budgetBytes, minBatchSize, shortest)) {
+        log.warn("Not even {} reviews of length 1 fit into {} MB", minBatchSize, budgetBytes >> 20);
+        return null;
+      }
+      //Longest length that fits, invariant: shortest fits, length does not
+      while (length - shortest > 1) {
+        int middle = (shortest + length) >>> 1;
+        if (fits(budgetBytes, minBatchSize, middle)) {
+          shortest = middle;
+        } else {
+          length = middle;
+        }
+      }
+      length = shortest;
+    }
+
+    NetworkMemoryReport report = conf.getMemoryReport(InputType.recurrent(vectorSize, length));
+    int smallest = minBatchSize;
+    int largest = maxBatchSize;
+    if (estimate(report, largest, length).totalBytes() > budgetBytes) {
+      //Largest batch size that fits, invariant: smallest fits, largest does not
+      while (largest - smallest > 1) {
+        int middle = (smallest + largest) >>> 1;
+        if (estimate(report, middle, length).totalBytes() <= budgetBytes) {
+          smallest = middle;
+        } else {
+          largest = middle;
+        }
+      }
+      largest = smallest;
+    }
+    Estimate plan = estimate(report, largest, length);
+    log.info("Memory plan for {} MB: {}", budgetBytes >> 20, plan);
+    return plan;
+  }
+
+  private boolean fits(long budgetBytes, int batchSize, int length) {
+    return estimate(batchSize, length).totalBytes() <= budgetBytes;
+  }
+
+  /**
+   * @return Bytes allocated through JavaCPP (every INDArray outside workspaces) plus the workspaces of this thread
+   */
+  static long offHeapBytes() {
+    long bytes = Pointer.totalBytes();
+    for (MemoryWorkspace workspace : Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread()) {
+      bytes += workspace.getCurrentSize();
+    }
+    return bytes;
+  }
+
+  /**
+   * Estimated off-heap memory of training with one minibatch shape
+   */
+  public static class Estimate {
+    private final int batchSize;
+    private final int length;
+    private long iteratorBytes;
+    private long activationBytes;
+    private long parameterBytes;
+    private long gradientBytes;
+    private long updaterBytes;
+
+    private Estimate(int batchSize, int length) {
+      this.batchSize = batchSize;
+      this.length = length;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    /**
+     * @return Truncate length the estimate is for
+     */
+    public int getLength() {
+      return length;
+    }
+
+    /**
+     * @return Features, labels and masks of every minibatch alive at once
+     */
+    public long getIteratorBytes() {
+      return iteratorBytes;
+    }
+
+    /**
+     * @return Activations, activation gradients and working memory of forward and backward pass
+     */
+    public long getActivationBytes() {
+      return activationBytes;
+    }
+
+    public long getParameterBytes() {
+      return parameterBytes;
+    }
+
+    public long getGradientBytes() {
+      return gradientBytes;
+    }
+
+    public long getUpdaterBytes() {
+      return updaterBytes;
+    }
+
+    public long totalBytes() {
+      return iteratorBytes + activationBytes + parameterBytes + gradientBytes + updaterBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("batch size %d, length %d: %d MB (minibatches %d MB, activations %d MB, parameters %d MB, "
+              + "gradients %d MB, updater state %d MB)", batchSize, length, totalBytes() >> 20, iteratorBytes >> 20,
+          activationBytes >> 20, parameterBytes >> 20, gradientBytes >> 20, updaterBytes >> 20);
+    }
+  }
+
+  /**
+   * Training listener that warns when the off-heap memory allocated since it was created grows above the plan by
+   * more than a tolerance. Create it once the network is initialized, right before training: the parameters already
+   * exist then and are not part of the expected growth. Usage is JavaCPP's allocations plus the workspaces of the
+   * training thread; it includes arrays that are garbage but not yet collected, which is also what runs out of memory.
+   * After a warning, the next one only comes once usage grew by the tolerance again.
+   */
+  public static class UsageMonitor extends BaseTrainingListener {
+    private final Estimate plan;
+    private final double tolerance;
+    private final long baseline;
+    private final long expected;
+    private long warnAbove;
+    private long peak;
+
+    /**
+     * @param tolerance Fraction above the plan that is still fine, e.g. 0.2
+     */
+    public UsageMonitor(Estimate plan, double tolerance) {
+      this.plan = plan;
+      this.tolerance = tolerance;
+      this.baseline = offHeapBytes();
+      this.expected = plan.totalBytes() - plan.getParameterBytes();
+      this.warnAbove = (long) (expected * (1 + tolerance));
+    }
+
+    @Override
+    public void iterationDone(Model model, int iteration, int epoch) {
+      long used = offHeapBytes() - baseline;
+      peak = Math.max(peak, used);
+      if (used > warnAbove) {
+        log.warn("Off-heap memory grew by {} MB during training, {}% above the {} MB planned for batch size {} and "
+                + "length {}", used >> 20, Math.round(100.0 * (used - expected) / expected), expected >> 20,
+            plan.getBatchSize(), plan.getLength());
+        warnAbove = (long) (used * (1 + tolerance));
+      }
+    }
+
+    /**
+     * @return Largest growth of off-heap memory seen after a minibatch
+     */
+    public long getPeakBytes() {
+      return peak;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.IOException;
+
+/**
+ * A DataSetIterator whose minibatches can be built by position, independently of its cursor.
+ * Lets {@link ParallelPrefetchIterator} assemble several minibatches at once on worker threads.
+ */
+public interface BatchSource extends DataSetIterator {
+
+  int totalExamples();
+
+  /**
+   * Build the minibatch of (at most) num examples starting at example index start, without moving the cursor.
+   * Must be safe to call from several threads at once.
+   */
+  DataSet batchAt(int start, int num) throws IOException;
+
+  /**
+   * Build the minibatch of the examples at the given positions, in that order. Positions are those of the unshuffled
+   * example order. Must be safe to call from several threads at once.
+   */
+  DataSet batchOf(int[] positions) throws IOException;
+
+  /**
+   * @return True if the example at the given (unshuffled) position is a positive review
+   */
+  boolean isPositiveAt(int position);
+
+  /**
+   * @return True if this is the iterator the network trains on, whose minibatches are recorded in {@link PipelineMetrics}
+   */
+  boolean isRecordMetrics();
+}
@@ -0,0 +1,230 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * On-disk cache of the tokenized reviews of a sentiment CSV file.
+ * Every review is stored as the sequence of word-vector vocabulary indices that survive the unknown-word filter,
+ * already truncated to the truncate length. Positive reviews come first, then negative reviews.<br>
+ * File layout (big endian): magic, 32 byte key, positive count, negative count, total token count (long), all token ids
+ * back to back, then one length per review. The token ids are memory-mapped in segments below 1 GB when opened, so
+ * caches larger than 2 GB work and later epochs and later runs skip tokenization.<br>
+ * The key is made of the length and last-modified time of the CSV file and of the word-vector file, and of the
+ * truncate length: if any of them changes, {@link #open(File, String)} reports the cache as stale and it has to be
+ * rebuilt.<br>
+ * Every key has a file of its own next to the given cache path (path + "." + key), so a rebuild never replaces a file
+ * that this or another JVM still has mapped, which fails on Windows. Caches of other keys are deleted after a build
+ * where possible.
+ */
+public class CorpusCache {
+  private static Logger log = LoggerFactory.getLogger(CorpusCache.class);
+
+  private static final int MAGIC = 0x53454e56;
+  private static final int KEY_LENGTH = 32;
+  private static final int HEADER_BYTES = 4 + KEY_LENGTH + 4 + 4 + 8;
+  private static final int SEGMENT_INTS = 1 << 28;
+
+  private final int numPositive;
+  private final int numNegative;
+  private final int[] lengths;
+  private final long[] offsets;
+  private final IntBuffer[] segments;
+
+  private CorpusCache(int numPositive, int numNegative, int[] lengths, IntBuffer[] segments) {
+    this.numPositive = numPositive;
+    this.numNegative = numNegative;
+    this.lengths = lengths;
+    this.offsets = new long[lengths.length];
+    long offset = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      offsets[i] = offset;
+      offset += lengths[i];
+    }
+    this.segments = segments;
+  }
+
+  /**
+   * Compute the cache key for the given inputs
+   *
+   * @param csvFile        Training/testing CSV file
+   * @param wordVectorFile Word-vector model the token ids refer to
+   * @param truncateLength Truncate length the sequences were cut to
+   * @return Hex encoded key of KEY_LENGTH characters
+   */
+  public static String key(File csvFile, File wordVectorFile, int truncateLength) {
+    long csv = 31 * csvFile.length() + csvFile.lastModified();
+    long vectors = 31 * (31 * wordVectorFile.length() + wordVectorFile.lastModified()) + truncateLength;
+    return String.format("%016x%016x", csv, vectors);
+  }
+
+  /**
+   * @return The file holding the cache of the given key
+   */
+  public static File file(File cacheFile, String key) {
+    return new File(cacheFile.getPath() + "." + key);
+  }
+
+  /**
+   * Memory-map an existing cache file
+   *
+   * @param cacheFile Cache path; the cache of key is read from {@link #file(File, String)}
+   * @return The cache, or null if there is no complete cache for the key
+   */
+  public static CorpusCache open(File cacheFile, String key) throws IOException {
+    File file = file(cacheFile, key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      if (channel.size() < HEADER_BYTES) {
+        return null;
+      }
+      //Read, not mapped: a rejected file must not stay mapped, or it could not be replaced on Windows
+      byte[] headerBytes = new byte[HEADER_BYTES];
+      raf.readFully(headerBytes);
+      ByteBuffer header = ByteBuffer.wrap(headerBytes);
+      if (header.getInt() != MAGIC) {
+        return null;
+      }
+      byte[] storedKey = new byte[KEY_LENGTH];
+      header.get(storedKey);
+      if (!key.equals(new String(storedKey, StandardCharsets.US_ASCII))) {
+        return null;
+      }
+      int numPositive = header.getInt();
+      int numNegative = header.getInt();
+      long numTokens = header.getLong();
+      if (channel.size() != HEADER_BYTES + 4 * (numTokens + numPositive + numNegative)) {
+        return null;
+      }
+
+      IntBuffer[] segments = new IntBuffer[(int) ((numTokens + SEGMENT_INTS - 1) / SEGMENT_INTS)];
+      for (int i = 0; i < segments.length; i++) {
+        long first = (long) i * SEGMENT_INTS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 4 * first,
+            4 * Math.min(SEGMENT_INTS, numTokens - first)).asIntBuffer();
+      }
+      int[] lengths = new int[numPositive + numNegative];
+      channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 4 * numTokens, 4L * lengths.length)
+          .asIntBuffer().get(lengths);
+      return new CorpusCache(numPositive, numNegative, lengths, segments);
+    }
+  }
+
+  /**
+   * Supplies the token ids of every review while a cache is built
+   */
+  public interface Source {
+    int[] tokenIds(boolean positive, int reviewNumber);
+  }
+
+  /**
+   * Write a new cache file for key. Reviews are pulled from the source one at a time, so building needs no more heap
+   * than one length per review. The file is written next to its final location and then renamed, so a crash while
+   * building never leaves a half written cache behind. Afterwards the caches of other keys are deleted, unless they
+   * are still in use.
+   */
+  public static CorpusCache build(File cacheFile, String key, int numPositive, int numNegative, Source source) throws IOException {
+    File file = file(cacheFile, key);
+    File tmp = new File(file.getPath() + ".tmp");
+    int[] lengths = new int[numPositive + numNegative];
+    long numTokens = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.write(key.getBytes(StandardCharsets.US_ASCII));
+      out.writeInt(numPositive);
+      out.writeInt(numNegative);
+      out.writeLong(0);
+      for (int i = 0; i < lengths.length; i++) {
+        boolean positive = i < numPositive;
+        int[] seq = source.tokenIds(positive, positive ? i : i - numPositive);
+        for (int id : seq) {
+          out.writeInt(id);
+        }
+        lengths[i] = seq.length;
+        numTokens += seq.length;
+      }
+      for (int length : lengths) {
+        out.writeInt(length);
+      }
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+      raf.seek(HEADER_BYTES - 8);
+      raf.writeLong(numTokens);
+    }
+    //Only replaces an incomplete file of the same key, which open() never maps
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    deleteStale(cacheFile, file);
+    CorpusCache cache = open(cacheFile, key);
+    if (cache == null) {
+      throw new IOException("Could not read back the new cache " + file);
+    }
+    return cache;
+  }
+
+  /**
+   * Delete the caches of other keys, and a cache at cacheFile itself as written by earlier versions. Files that
+   * cannot be deleted, e.g. because they are mapped on Windows, are left for a later build.
+   */
+  private static void deleteStale(File cacheFile, File current) {
+    File directory = cacheFile.getAbsoluteFile().getParentFile();
+    File[] files = directory == null ? null : directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    String prefix = cacheFile.getName() + ".";
+    for (File f : files) {
+      boolean stale = f.getName().equals(cacheFile.getName())
+              || (f.getName().startsWith(prefix) && !f.getName().endsWith(".tmp"));
+      if (stale && !f.getName().equals(current.getName()) && f.isFile() && !f.delete()) {
+        log.info("Could not delete stale token cache {}, probably still in use", f);
+      }
+    }
+  }
+
+  public int numPositive() {
+    return numPositive;
+  }
+
+  public int numNegative() {
+    return numNegative;
+  }
+
+  /**
+   * Token ids of the given review
+   *
+   * @param positive     If true: index into the positive reviews, otherwise into the negative reviews
+   * @param reviewNumber Index of the review within its class
+   */
+  public int[] tokenIds(boolean positive, int reviewNumber) {
+    int index = positive ? reviewNumber : numPositive + reviewNumber;
+    int[] seq = new int[lengths[index]];
+    long offset = offsets[index];
+    //A review may start in one segment and end in the next
+    for (int copied = 0; copied < seq.length; ) {
+      IntBuffer view = segments[(int) (offset / SEGMENT_INTS)].duplicate();
+      view.position((int) (offset % SEGMENT_INTS));
+      int n = Math.min(seq.length - copied, view.remaining());
+      view.get(seq, copied, n);
+      copied += n;
+      offset += n;
+    }
+    return seq;
+  }
+}
@@ -0,0 +1,218 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data-parallel training with parameter averaging on one machine.<br>
+ * The network is cloned into numReplicas replicas (the network itself is replica 0). Every replica trains on its own
+ * thread from its own {@link ParallelPrefetchIterator} shard, so each minibatch of an epoch is used by exactly one
+ * replica. After every replica has fitted averagingFrequency minibatches, the parameters and the updater state of the
+ * replicas are averaged and copied back into all of them.<br>
+ * ND4J parallelizes each operation internally as well; with several replicas, limit that with the OMP_NUM_THREADS
+ * environment variable to avoid oversubscribing the cores.
+ */
+public class DataParallelTrainer {
+  private static Logger log = LoggerFactory.getLogger(DataParallelTrainer.class);
+
+  private final MultiLayerNetwork net;
+  private final BatchSource train;
+  private final int averagingFrequency;
+  private final int prefetchWorkers;
+  private final int queueDepth;
+  private final MultiLayerNetwork[] replicas;
+  private final ParallelPrefetchIterator[] shards;
+  private final ExecutorService workers;
+
+  /**
+   * @param net                Network to train; holds the averaged parameters after every epoch
+   * @param train              Training data
+   * @param numReplicas        Number of replicas training in parallel
+   * @param averagingFrequency Number of minibatches each replica fits between two averaging steps
+   * @param prefetchWorkers    Threads building minibatches for each replica
+   * @param queueDepth         Maximum number of minibatches built ahead for each replica
+   */
+  public DataParallelTrainer(MultiLayerNetwork net, BatchSource train, int numReplicas, int averagingFrequency,
+                             int prefetchWorkers, int queueDepth) {
+    this.net = net;
+    this.train = train;
+    this.averagingFrequency = Math.max(1, averagingFrequency);
+    this.prefetchWorkers = Math.max(1, prefetchWorkers);
+    this.queueDepth = queueDepth;
+    this.replicas = new MultiLayerNetwork[Math.max(1, numReplicas)];
+    this.shards = new ParallelPrefetchIterator[replicas.length];
+    replicas[0] = net;
+    for (int i = 0; i < replicas.length; i++) {
+      if (i > 0) {
+        replicas[i] = net.clone();
+        replicas[i].setListeners();   //Only the original network reports scores
+      }
+      shards[i] = new ParallelPrefetchIterator(train, this.prefetchWorkers, queueDepth, i, replicas.length);
+    }
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(replicas.length, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "replica-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Train one epoch on all replicas and reset the training data for the next one
+   *
+   * @return Training throughput of the epoch in examples per second
+   */
+  public double fitEpoch() throws Exception {
+    long start = System.currentTimeMillis();
+    long examples = 0;
+    boolean more = true;
+    while (more) {
+      List<Future<Integer>> round = new ArrayList<>(replicas.length);
+      for (int i = 0; i < replicas.length; i++) {
+        final MultiLayerNetwork replica = replicas[i];
+        final ParallelPrefetchIterator shard = shards[i];
+        round.add(workers.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            int fitted = 0;
+            for (int k = 0; k < averagingFrequency && shard.hasNext(); k++) {
+              DataSet batch = shard.next();
+              replica.fit(batch);
+              fitted += batch.numExamples();
+            }
+            return fitted;
+          }
+        }));
+      }
+
+      List<MultiLayerNetwork> trained = new ArrayList<>(replicas.length);
+      for (int i = 0; i < replicas.length; i++) {
+        int fitted;
+        try {
+          fitted = round.get(i).get();
+        } catch (ExecutionException e) {
+          for (Future<Integer> f : round) {
+            f.cancel(true);
+          }
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        if (fitted > 0) {
+          trained.add(replicas[i]);
+          examples += fitted;
+        }
+      }
+      more = !trained.isEmpty();
+      if (more) {
+        average(trained);
+      }
+    }
+
+    //Every shard is drained at this point, so nothing is in flight while the training data is reshuffled
+    train.reset();
+    for (ParallelPrefetchIterator shard : shards) {
+      shard.reset();
+    }
+    for (MultiLayerNetwork replica : replicas) {
+      replica.incrementEpochCount();
+    }
+    long millis = Math.max(1, System.currentTimeMillis() - start);
+    return examples * 1000.0 / millis;
+  }
+
+  /**
+   * Average the parameters and updater state of the replicas that trained in the last round and copy the result into
+   * every replica, so replicas that ran out of data stay in sync too.
+   */
+  private void average(List<MultiLayerNetwork> trained) {
+    if (replicas.length == 1) {
+      return;
+    }
+    INDArray params = trained.get(0).params().dup();
+    INDArray updaterState = stateOf(trained.get(0));
+    updaterState = updaterState == null ? null : updaterState.dup();
+    for (int i = 1; i < trained.size(); i++) {
+      params.addi(trained.get(i).params());
+      if (updaterState != null) {
+        updaterState.addi(stateOf(trained.get(i)));
+      }
+    }
+    params.divi(trained.size());
+    if (updaterState != null) {
+      updaterState.divi(trained.size());
+    }
+    for (MultiLayerNetwork replica : replicas) {
+      replica.params().assign(params);
+      if (updaterState != null && stateOf(replica) != null) {
+        stateOf(replica).assign(updaterState);
+      }
+    }
+  }
+
+  private static INDArray stateOf(MultiLayerNetwork replica) {
+    return replica.getUpdater() == null ? null : replica.getUpdater().getStateViewArray();
+  }
+
+  /**
+   * Measure the training throughput of a single replica on the first numBatches minibatches, on a throwaway copy of
+   * the network, as the baseline for the speedup of the replicas. The first few minibatches only warm up and are not
+   * timed. Minibatches are built by position, so neither the cursor nor the example order of the training data change.
+   *
+   * @return Examples per second
+   */
+  public double measureSingleReplicaThroughput(int numBatches) {
+    int warmup = Math.max(1, numBatches / 4);
+    MultiLayerNetwork copy = net.clone();
+    copy.setListeners();
+    ParallelPrefetchIterator single = new ParallelPrefetchIterator(train, prefetchWorkers, queueDepth);
+    single.setRecordMetrics(false);
+    long examples = 0;
+    long start = System.currentTimeMillis();
+    try {
+      for (int k = 0; k < numBatches && single.hasNext(); k++) {
+        if (k == warmup) {
+          examples = 0;
+          start = System.currentTimeMillis();
+        }
+        DataSet batch = single.next();
+        copy.fit(batch);
+        examples += batch.numExamples();
+      }
+    } finally {
+      single.shutdown();
+    }
+    long millis = Math.max(1, System.currentTimeMillis() - start);
+    double throughput = examples * 1000.0 / millis;
+    log.info("Single replica baseline: {} examples/sec", String.format("%.1f", throughput));
+    return throughput;
+  }
+
+  public int getNumReplicas() {
+    return replicas.length;
+  }
+
+  /**
+   * Stop the replica and prefetch threads. The trainer cannot be used afterwards.
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+    for (ParallelPrefetchIterator shard : shards) {
+      shard.shutdown();
+    }
+  }
+}
@@ -5,6 +5,8 @@ package org.deeplearning4j.word2vecsentiment;/**
  * Time: 15:01
  */
 
+import org.deeplearning4j.utilities.Params;
+
 /**
  *@ClassName: DealAll
  *@Description: TODO
@@ -14,7 +16,11 @@ package org.deeplearning4j.word2vecsentiment;/**
 public class DealAll {
   public static void main(String[] args) throws Exception {
 
-    Word2VecRawTextExample.run();
+    if (Params.incrementalWord2Vec) {
+      Word2VecRawTextExample.runIncremental();
+    } else {
+      Word2VecRawTextExample.run();
+    }
 
     MyWord2VecSentimentRNN.runModal();
 
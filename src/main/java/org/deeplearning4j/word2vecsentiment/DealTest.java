@@ -7,6 +7,7 @@ package org.deeplearning4j.word2vecsentiment;/**
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -30,21 +31,9 @@ public class DealTest {
       int lineNum=0;
       while (sc.hasNextLine()) {
         lineNum++;
-        String dataLine = sc.nextLine();
-        if (dataLine != null) {
-          int i = dataLine.indexOf(",");
-          if(i>0&&i<dataLine.length()-1){
-            String id = dataLine.substring(0,i);
-            String review = dataLine.substring(i+1,dataLine.length());
-            if(StringUtils.isNumeric(id)){
-              testDataList.add(new TestData(Integer.parseInt(id),review));
-            }else {
-              System.out.println(lineNum+"error:"+dataLine);
-            }
-          }
-          else {
-            System.out.println(lineNum+"error:"+dataLine);
-          }
+        TestData testData = parseLine(sc.nextLine(), lineNum);
+        if (testData != null) {
+          testDataList.add(testData);
         }
       }
     } catch (FileNotFoundException e) {
@@ -52,6 +41,75 @@ public class DealTest {
     }
   }
 
+  /**
+   * Parse one "id,review" line of the test file
+   *
+   * @return The record, or null if the line is not a valid record
+   */
+  public static TestData parseLine(String dataLine, int lineNum) {
+    if (dataLine != null) {
+      int i = dataLine.indexOf(",");
+      if(i>0&&i<dataLine.length()-1){
+        String id = dataLine.substring(0,i);
+        String review = dataLine.substring(i+1,dataLine.length());
+        if(StringUtils.isNumeric(id)){
+          return new TestData(Integer.parseInt(id),review);
+        }else {
+          System.out.println(lineNum+"error:"+dataLine);
+        }
+      }
+      else {
+        System.out.println(lineNum+"error:"+dataLine);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Receives the records of the test file chunk by chunk, see {@link #readChunks}
+   */
+  public interface ChunkHandler {
+    void accept(List<TestData> chunk) throws InterruptedException;
+  }
+
+  /**
+   * Stream the test file in chunks of chunkSize records instead of loading it into a list, so memory use does not
+   * depend on the size of the file.
+   *
+   * @param resumeAfterId If not null: skip every record up to and including the one with this ID
+   * @throws IOException If resumeAfterId is not in the file
+   */
+  public static void readChunks(String testDataPath, Integer resumeAfterId, int chunkSize, ChunkHandler handler)
+          throws IOException, InterruptedException {
+    boolean skipping = resumeAfterId != null;
+    List<TestData> chunk = new ArrayList<>(chunkSize);
+    try (Scanner sc = new Scanner(new File(testDataPath))) {
+      int lineNum = 0;
+      while (sc.hasNextLine()) {
+        lineNum++;
+        TestData testData = parseLine(sc.nextLine(), lineNum);
+        if (testData == null) {
+          continue;
+        }
+        if (skipping) {
+          skipping = !resumeAfterId.equals(testData.getId());
+          continue;
+        }
+        chunk.add(testData);
+        if (chunk.size() == chunkSize) {
+          handler.accept(chunk);
+          chunk = new ArrayList<>(chunkSize);
+        }
+      }
+    }
+    if (skipping) {
+      throw new IOException("ID " + resumeAfterId + " to resume after is not in " + testDataPath);
+    }
+    if (!chunk.isEmpty()) {
+      handler.accept(chunk);
+    }
+  }
+
   public List<TestData> getTestDataList() {
     return testDataList;
   }
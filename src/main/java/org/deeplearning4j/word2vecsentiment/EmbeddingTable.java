@@ -0,0 +1,473 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.utilities.Params;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Flat, index-based copy of a WordVectors model for fast minibatch assembly.<br>
+ * Words are mapped to their vocabulary index with a primitive open-addressing hash table (no boxing, no
+ * per-lookup allocation), and all vectors live in one contiguous float matrix, one row per vocabulary index.
+ * A whole minibatch of token-id sequences is gathered straight into the backing buffer of the features array,
+ * instead of building and transposing one INDArray per review.<br>
+ * A table can also hold its vectors quantized to int8 with one float scale per row ({@link #quantize()}), a quarter
+ * of the memory; rows are then dequantized while they are gathered. {@link #load(File, boolean)} reads such a table
+ * from a file next to the word-vector model without ever loading the float vectors.<br>
+ * Finally, the rows can stay in a memory-mapped file written by {@link MappedWordVectors}, shared through the page
+ * cache by every JVM that maps it.
+ */
+public class EmbeddingTable {
+  private static final Map<WordVectors, EmbeddingTable> TABLES = new WeakHashMap<>();
+  private static final int MAGIC = 0x51384554;
+
+  private final int vectorSize;
+  private final int numWords;
+  private final float[] vectors;
+  //Quantized rows: vector[d] = quantized[row * vectorSize + d] * scales[row]. Null for float tables
+  private final byte[] quantized;
+  private final float[] scales;
+  //Memory-mapped rows: row r is at (r % rowsPerSegment) * vectorSize in mapped[r / rowsPerSegment]. Null otherwise
+  private final FloatBuffer[] mapped;
+  private final int rowsPerSegment;
+  private final String[] keys;
+  private final int[] values;
+  private final int mask;
+
+  private EmbeddingTable(WordVectors wordVectors) {
+    this(words(wordVectors), wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length, null, null, null);
+    for (int i = 0; i < numWords; i++) {
+      double[] vector = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(i));
+      for (int d = 0; d < vectorSize; d++) {
+        vectors[i * vectorSize + d] = (float) vector[d];
+      }
+    }
+  }
+
+  /**
+   * @param vectors   Float rows, or null to allocate them (when quantized is null)
+   * @param quantized Int8 rows, or null for a float table
+   */
+  private EmbeddingTable(String[] words, int vectorSize, float[] vectors, byte[] quantized, float[] scales) {
+    this.vectorSize = vectorSize;
+    this.numWords = words.length;
+    this.quantized = quantized;
+    this.scales = scales;
+    this.vectors = quantized != null ? null : vectors != null ? vectors : new float[arrayLength(numWords, vectorSize)];
+    this.mapped = null;
+    this.rowsPerSegment = 0;
+
+    int capacity = Integer.highestOneBit(Math.max(2, numWords) * 2 - 1) << 1;
+    this.keys = new String[capacity];
+    this.values = new int[capacity];
+    this.mask = capacity - 1;
+    for (int i = 0; i < numWords; i++) {
+      int slot = words[i].hashCode() & mask;
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = words[i];
+      values[slot] = i;
+    }
+  }
+
+  /**
+   * Table over memory-mapped rows, see {@link MappedWordVectors}
+   *
+   * @param slots Hash index as written by {@link #slots(String[])}: vocabulary index per slot, -1 for empty slots
+   */
+  EmbeddingTable(String[] words, int[] slots, int vectorSize, FloatBuffer[] mapped, int rowsPerSegment) {
+    this.vectorSize = vectorSize;
+    this.numWords = words.length;
+    this.vectors = null;
+    this.quantized = null;
+    this.scales = null;
+    this.mapped = mapped;
+    this.rowsPerSegment = rowsPerSegment;
+    this.keys = new String[slots.length];
+    this.values = slots;
+    this.mask = slots.length - 1;
+    for (int slot = 0; slot < slots.length; slot++) {
+      if (slots[slot] >= 0) {
+        keys[slot] = words[slots[slot]];
+      }
+    }
+  }
+
+  /**
+   * Open-addressing hash index of words, the same as the one built by the constructors
+   *
+   * @return Vocabulary index per slot, -1 for empty slots
+   */
+  static int[] slots(String[] words) {
+    int capacity = Integer.highestOneBit(Math.max(2, words.length) * 2 - 1) << 1;
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, -1);
+    for (int i = 0; i < words.length; i++) {
+      int slot = words[i].hashCode() & (capacity - 1);
+      while (slots[slot] >= 0) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      slots[slot] = i;
+    }
+    return slots;
+  }
+
+  /**
+   * @return Length of one array holding numWords rows of vectorSize
+   * @throws IllegalStateException If that is more than a Java array can hold
+   */
+  private static int arrayLength(int numWords, int vectorSize) {
+    long length = (long) numWords * vectorSize;
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException(numWords + " word vectors of size " + vectorSize + " are " + length
+          + " values, too many for one array. Use Params.mappedWordVectors, whose rows are mapped in segments");
+    }
+    return (int) length;
+  }
+
+  private static String[] words(WordVectors wordVectors) {
+    String[] words = new String[wordVectors.vocab().numWords()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = wordVectors.vocab().wordAtIndex(i);
+    }
+    return words;
+  }
+
+  /**
+   * @return Word of every vocabulary index
+   */
+  private String[] words() {
+    String[] words = new String[numWords];
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (keys[slot] != null) {
+        words[values[slot]] = keys[slot];
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Get the table for the given word vectors, building it on first use. Iterators that share a WordVectors object
+   * share one table.
+   */
+  public static EmbeddingTable of(WordVectors wordVectors) {
+    synchronized (TABLES) {
+      EmbeddingTable table = TABLES.get(wordVectors);
+      if (table == null) {
+        table = new EmbeddingTable(wordVectors);
+        TABLES.put(wordVectors, table);
+      }
+      return table;
+    }
+  }
+
+  public int vectorSize() {
+    return vectorSize;
+  }
+
+  public int numWords() {
+    return numWords;
+  }
+
+  public boolean isQuantized() {
+    return quantized != null;
+  }
+
+  /**
+   * @return Bytes held by the vector rows (and scales); for mapped rows, the size of the mapping
+   */
+  public long vectorBytes() {
+    return quantized != null ? quantized.length + 4L * scales.length : 4L * numWords * vectorSize;
+  }
+
+  /**
+   * Copy the float vector of a vocabulary index into row
+   */
+  private void row(int index, float[] row) {
+    if (mapped != null) {
+      FloatBuffer segment = mapped[index / rowsPerSegment];
+      int base = (index % rowsPerSegment) * vectorSize;
+      for (int d = 0; d < vectorSize; d++) {
+        row[d] = segment.get(base + d);
+      }
+    } else if (quantized != null) {
+      for (int d = 0; d < vectorSize; d++) {
+        row[d] = quantized[index * vectorSize + d] * scales[index];
+      }
+    } else {
+      System.arraycopy(vectors, index * vectorSize, row, 0, vectorSize);
+    }
+  }
+
+  /**
+   * Int8 copy of this table, with the same vocabulary indices. Each row is scaled by its largest absolute component,
+   * so that component maps to +-127; the rounding error per component is at most half a step of that row.
+   */
+  public EmbeddingTable quantize() {
+    if (quantized != null) {
+      return this;
+    }
+    byte[] q = new byte[arrayLength(numWords, vectorSize)];
+    float[] s = new float[numWords];
+    float[] vector = new float[vectorSize];
+    for (int i = 0; i < numWords; i++) {
+      row(i, vector);
+      float max = 0;
+      for (int d = 0; d < vectorSize; d++) {
+        max = Math.max(max, Math.abs(vector[d]));
+      }
+      s[i] = max / 127f;
+      for (int d = 0; d < vectorSize; d++) {
+        q[i * vectorSize + d] = max == 0 ? 0 : (byte) Math.round(vector[d] / s[i]);
+      }
+    }
+    return new EmbeddingTable(words(), vectorSize, null, q, s);
+  }
+
+  /**
+   * @return Hash of the words in vocabulary-index order. Networks that take vocabulary indices only work with a table of
+   * the same fingerprint, see {@link IndexEmbeddingModel#checkVocabulary(File, EmbeddingTable)}
+   */
+  public long vocabularyFingerprint() {
+    long fingerprint = 0xcbf29ce484222325L ^ numWords;
+    for (String word : words()) {
+      fingerprint = (fingerprint ^ word.hashCode()) * 0x100000001b3L;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * @return Vocabulary index of the word, or -1 if the word has no vector
+   */
+  public int indexOf(String word) {
+    int slot = word.hashCode() & mask;
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.equals(word)) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Map tokens to vocabulary indices, dropping unknown tokens
+   *
+   * @param tokens    Tokens of one review
+   * @param maxLength Keep at most this many known tokens
+   */
+  public int[] lookup(List<String> tokens, int maxLength) {
+    int[] ids = new int[Math.min(tokens.size(), maxLength)];
+    int n = 0;
+    for (int j = 0; j < tokens.size() && n < ids.length; j++) {
+      int id = indexOf(tokens.get(j));
+      if (id >= 0) {
+        ids[n++] = id;
+      }
+    }
+    if (n == ids.length) {
+      return ids;
+    }
+    int[] trimmed = new int[n];
+    System.arraycopy(ids, 0, trimmed, 0, n);
+    return trimmed;
+  }
+
+  /**
+   * Gather a minibatch of sequences into one features array of shape [sequences.size(), vectorSize, timeSteps] in
+   * 'f' order. Sequences longer than timeSteps are truncated, shorter ones are zero padded.
+   */
+  public INDArray gather(List<int[]> sequences, int timeSteps) {
+    int n = sequences.size();
+    float[] data = new float[n * vectorSize * timeSteps];
+    for (int i = 0; i < n; i++) {
+      int[] ids = sequences.get(i);
+      int seqLength = Math.min(ids.length, timeSteps);
+      for (int t = 0; t < seqLength; t++) {
+        int src = ids[t] * vectorSize;
+        int dst = i + n * vectorSize * t;
+        if (quantized != null) {
+          float scale = scales[ids[t]];
+          for (int d = 0; d < vectorSize; d++) {
+            data[dst + n * d] = quantized[src + d] * scale;
+          }
+        } else if (mapped != null) {
+          FloatBuffer segment = mapped[ids[t] / rowsPerSegment];
+          int base = (ids[t] % rowsPerSegment) * vectorSize;
+          for (int d = 0; d < vectorSize; d++) {
+            data[dst + n * d] = segment.get(base + d);
+          }
+        } else {
+          for (int d = 0; d < vectorSize; d++) {
+            data[dst + n * d] = vectors[src + d];
+          }
+        }
+      }
+    }
+    return Nd4j.create(data, new int[]{n, vectorSize, timeSteps}, 'f');
+  }
+
+  /**
+   * Index features for a minibatch: shape [sequences.size(), 1, timeSteps] in 'f' order, holding the vocabulary
+   * index of each word as a float, zero padded. Input for an embedding layer, see {@link IndexEmbeddingModel}.
+   */
+  public INDArray gatherIndices(List<int[]> sequences, int timeSteps) {
+    int n = sequences.size();
+    float[] data = new float[n * timeSteps];
+    for (int i = 0; i < n; i++) {
+      int[] ids = sequences.get(i);
+      int seqLength = Math.min(ids.length, timeSteps);
+      for (int t = 0; t < seqLength; t++) {
+        data[i + n * t] = ids[t];
+      }
+    }
+    return Nd4j.create(data, new int[]{n, 1, timeSteps}, 'f');
+  }
+
+  /**
+   * @return Copy of the embedding matrix, shape [numWords, vectorSize], one row per vocabulary index
+   */
+  public INDArray weights() {
+    float[] rows = vectors;
+    if (rows == null) {
+      rows = new float[arrayLength(numWords, vectorSize)];
+      float[] vector = new float[vectorSize];
+      for (int i = 0; i < numWords; i++) {
+        row(i, vector);
+        System.arraycopy(vector, 0, rows, i * vectorSize, vectorSize);
+      }
+    }
+    return Nd4j.create(rows, new int[]{numWords(), vectorSize}, 'c');
+  }
+
+  /**
+   * Table of the word-vector model in modelFile, quantized, mapped and pruned as set in Params
+   */
+  public static EmbeddingTable load(File modelFile) throws IOException {
+    return load(modelFile, Params.quantizedEmbeddings);
+  }
+
+  /**
+   * @return The file whose vocabulary order the indices of {@link #load(File)} follow: the mapped copy if
+   * Params.mappedWordVectors, otherwise modelFile
+   */
+  public static File vocabularyFile(File modelFile) {
+    return Params.mappedWordVectors ? mappedFile(modelFile) : modelFile;
+  }
+
+  /**
+   * Table of the word-vector model in modelFile, mapped and pruned as set in Params.<br>
+   * Quantized: read from modelFile + ".int8" if that file was written for this version of the model; otherwise the
+   * model is loaded once, quantized and saved there for the next run.
+   */
+  public static EmbeddingTable load(File modelFile, boolean quantized) throws IOException {
+    List<File> pruneTo = null;
+    if (Params.pruneWordVectors) {
+      pruneTo = Arrays.asList(new File(Params.DATA_PATH), new File(Params.Test_DATA_PATH), new File(Params.VALIDATION_DATA_PATH));
+    }
+    return load(modelFile, quantized, Params.mappedWordVectors, pruneTo);
+  }
+
+  /**
+   * Same as above with explicit settings, optionally from the memory-mapped copy of the model (see
+   * {@link MappedWordVectors}), which is written on first use.
+   *
+   * @param mapped  Use {@link #mappedFile(File)} instead of parsing modelFile. With quantized, the int8 table is built
+   *                from (and saved next to) the mapped file
+   * @param pruneTo With mapped: keep only the words occurring in these CSV files. Null or empty: keep every word
+   */
+  public static EmbeddingTable load(File modelFile, boolean quantized, boolean mapped, List<File> pruneTo) throws IOException {
+    File source = mapped ? mappedFile(modelFile) : modelFile;
+    EmbeddingTable floats = null;
+    if (mapped) {
+      floats = MappedWordVectors.openOrConvert(modelFile, source, pruneTo);
+    }
+    if (!quantized) {
+      return floats != null ? floats : of(WordVectorSerializer.loadStaticModel(modelFile));
+    }
+    File file = new File(source.getPath() + ".int8");
+    if (file.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+        if (in.readInt() == MAGIC && in.readLong() == source.length() && in.readLong() == source.lastModified()) {
+          return read(in);
+        }
+      }
+    }
+    System.out.println("Quantizing " + source + " into " + file);
+    if (floats == null) {
+      floats = new EmbeddingTable(WordVectorSerializer.loadStaticModel(modelFile));
+    }
+    EmbeddingTable table = floats.quantize();
+    table.save(file, source);
+    return table;
+  }
+
+  /**
+   * @return File holding the memory-mapped copy of modelFile. Its vocabulary order differs from modelFile, so anything
+   * keyed by vocabulary index (token caches, index-input models) must be keyed by this file instead
+   */
+  public static File mappedFile(File modelFile) {
+    return new File(modelFile.getPath() + ".mmap");
+  }
+
+  /**
+   * Write a quantized table to file (temporary file, then rename), tagged with the length and time of the model file
+   * it was built from
+   */
+  public void save(File file, File modelFile) throws IOException {
+    if (quantized == null) {
+      throw new IllegalStateException("Only quantized tables are saved");
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeLong(modelFile.length());
+      out.writeLong(modelFile.lastModified());
+      out.writeInt(numWords);
+      out.writeInt(vectorSize);
+      for (String word : words()) {
+        out.writeUTF(word);
+      }
+      for (float scale : scales) {
+        out.writeFloat(scale);
+      }
+      out.write(quantized);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static EmbeddingTable read(DataInputStream in) throws IOException {
+    int numWords = in.readInt();
+    int vectorSize = in.readInt();
+    String[] words = new String[numWords];
+    for (int i = 0; i < numWords; i++) {
+      words[i] = in.readUTF();
+    }
+    float[] scales = new float[numWords];
+    for (int i = 0; i < numWords; i++) {
+      scales[i] = in.readFloat();
+    }
+    byte[] quantized = new byte[arrayLength(numWords, vectorSize)];
+    in.readFully(quantized);
+    return new EmbeddingTable(words, vectorSize, null, quantized, scales);
+  }
+}
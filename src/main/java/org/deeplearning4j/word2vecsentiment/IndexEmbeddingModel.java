@@ -0,0 +1,101 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.conf.layers.misc.FrozenLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Sentiment network that takes vocabulary indices instead of word vectors.<br>
+ * Layer 0 is a frozen embedding layer holding the word vectors of an {@link EmbeddingTable}; layers 1 and 2 are the
+ * same LSTM(256) and RnnOutputLayer as in MyWord2VecSentimentRNN. Fed by a SentimentIterator with
+ * {@link SentimentIterator#setIndexFeatures(boolean)} enabled, each minibatch is [batch, 1, T] instead of
+ * [batch, vectorSize, T], so the iterator copies vectorSize times less data.<br>
+ * The embedding weights are part of the network parameters, so the model saved with ModelSerializer is self contained,
+ * apart from the mapping of words to indices: that comes from the EmbeddingTable used for scoring, so the saved model
+ * also stores the fingerprint of the vocabulary it was trained with ({@link #saveVocabulary(File, EmbeddingTable)}).
+ */
+public class IndexEmbeddingModel {
+  private static Logger log = LoggerFactory.getLogger(IndexEmbeddingModel.class);
+
+  /** Name of the vocabulary fingerprint in the model file */
+  private static final String VOCABULARY_FINGERPRINT = "vocabularyFingerprint";
+
+  /**
+   * Build and initialize a new index-input network
+   */
+  public static MultiLayerNetwork build(EmbeddingTable embeddings, int seed) {
+    int vectorSize = embeddings.vectorSize();
+    MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+            .seed(seed)
+            .updater(new Adam(2e-2))
+            .l2(1e-5)
+            .weightInit(WeightInit.XAVIER)
+            .gradientNormalization(GradientNormalization.ClipElementWiseAbsoluteValue).gradientNormalizationThreshold(1.0)
+            .trainingWorkspaceMode(WorkspaceMode.SEPARATE).inferenceWorkspaceMode(WorkspaceMode.SEPARATE)   //https://deeplearning4j.org/workspaces
+            .list()
+            .layer(0, new FrozenLayer.Builder().layer(new EmbeddingSequenceLayer.Builder()
+                    .nIn(embeddings.numWords()).nOut(vectorSize)
+                    .activation(Activation.IDENTITY).hasBias(false).build()).build())
+            .layer(1, new LSTM.Builder().nIn(vectorSize).nOut(256)
+                    .activation(Activation.TANH).build())
+            .layer(2, new RnnOutputLayer.Builder().activation(Activation.SOFTMAX)
+                    .lossFunction(LossFunctions.LossFunction.MCXENT).nIn(256).nOut(2).build())
+            .pretrain(false).backprop(true).build();
+
+    MultiLayerNetwork net = new MultiLayerNetwork(conf);
+    net.init();
+    net.getLayer(0).setParam("W", embeddings.weights());
+    return net;
+  }
+
+  /**
+   * Add the vocabulary fingerprint of embeddings to a model file written by ModelSerializer
+   */
+  public static void saveVocabulary(File modelFile, EmbeddingTable embeddings) {
+    ModelSerializer.addObjectToFile(modelFile, VOCABULARY_FINGERPRINT, embeddings.vocabularyFingerprint());
+  }
+
+  /**
+   * Check that an index-input model file was trained with the vocabulary of embeddings. Models saved without a
+   * fingerprint are accepted with a warning.
+   *
+   * @throws IllegalStateException If the vocabularies differ, so every index would map to the wrong word
+   */
+  public static void checkVocabulary(File modelFile, EmbeddingTable embeddings) {
+    if (!ModelSerializer.listObjectsInFile(modelFile).contains(VOCABULARY_FINGERPRINT)) {
+      log.warn("{} holds no vocabulary fingerprint; its vocabulary indices cannot be checked", modelFile);
+      return;
+    }
+    Long saved = ModelSerializer.getObjectFromFile(modelFile, VOCABULARY_FINGERPRINT);
+    if (saved != embeddings.vocabularyFingerprint()) {
+      throw new IllegalStateException(modelFile + " was trained with another vocabulary than the "
+              + embeddings.numWords() + " words of the current word vectors; its indices would map to the wrong words");
+    }
+  }
+
+  /**
+   * @return True if the network starts with an embedding layer and expects index features
+   */
+  public static boolean isIndexModel(MultiLayerNetwork net) {
+    org.deeplearning4j.nn.conf.layers.Layer first = net.getLayerWiseConfigurations().getConf(0).getLayer();
+    if (first instanceof FrozenLayer) {
+      first = ((FrozenLayer) first).getLayer();
+    }
+    return first instanceof EmbeddingSequenceLayer;
+  }
+}
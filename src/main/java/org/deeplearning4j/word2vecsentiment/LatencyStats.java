@@ -0,0 +1,67 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import java.util.Arrays;
+
+/**
+ * Request latency and throughput over a sliding window of the most recent requests.
+ * Recording is a constant-time write into ring buffers; percentiles are only computed when asked for.
+ */
+public class LatencyStats {
+  private final long[] latencies;
+  private final long[] completions;
+  private final long windowNanos;
+  private int next = 0;
+  private int size = 0;
+  private long total = 0;
+
+  /**
+   * @param capacity      Number of most recent requests kept for percentiles
+   * @param windowSeconds Time window for requests per second
+   */
+  public LatencyStats(int capacity, int windowSeconds) {
+    this.latencies = new long[capacity];
+    this.completions = new long[capacity];
+    this.windowNanos = windowSeconds * 1000000000L;
+  }
+
+  public synchronized void record(long startNanos, long endNanos) {
+    latencies[next] = endNanos - startNanos;
+    completions[next] = endNanos;
+    next = (next + 1) % latencies.length;
+    size = Math.min(size + 1, latencies.length);
+    total++;
+  }
+
+  public synchronized long total() {
+    return total;
+  }
+
+  /**
+   * @param p Percentile in [0, 100]
+   * @return Latency at that percentile in milliseconds, over the kept requests
+   */
+  public synchronized double percentileMillis(double p) {
+    if (size == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(latencies, size);
+    Arrays.sort(sorted);
+    int index = (int) Math.min(size - 1, Math.ceil(p / 100.0 * size) - 1);
+    return sorted[Math.max(index, 0)] / 1e6;
+  }
+
+  /**
+   * @return Requests completed per second over the time window. Only the kept requests are counted, so with more
+   * than capacity requests in the window the rate is capped at capacity / windowSeconds
+   */
+  public synchronized double requestsPerSecond() {
+    long now = System.nanoTime();
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (now - completions[i] <= windowNanos) {
+        count++;
+      }
+    }
+    return count / (windowNanos / 1e9);
+  }
+}
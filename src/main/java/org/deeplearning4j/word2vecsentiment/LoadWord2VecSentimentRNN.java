@@ -7,8 +7,6 @@ import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.util.ModelSerializer;
 import org.deeplearning4j.utilities.CSVUtils;
 import org.deeplearning4j.utilities.DataUtilities;
-import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
-import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.deeplearning4j.nn.conf.GradientNormalization;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -34,6 +32,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -98,26 +98,102 @@ public class LoadWord2VecSentimentRNN {
     net.getLabels();
 
     //DataSetIterators for training and testing respectively
-    WordVectors wordVectors = WordVectorSerializer.loadStaticModel(new File(Params.WORD_VECTORS_PATH));
-    SentimentIterator test = new SentimentIterator(Params.Test_DATA_PATH, wordVectors, batchSize, truncateReviewsToLength, false);
+    EmbeddingTable embeddings = EmbeddingTable.load(new File(Params.WORD_VECTORS_PATH));
+    if (IndexEmbeddingModel.isIndexModel(net)) {
+      IndexEmbeddingModel.checkVocabulary(locationToSave, embeddings);
+    }
+    if (Params.streamingScoring) {
+      //Only used for featurization here, so it holds no data
+      SentimentIterator featurizer = new SentimentIterator(embeddings, batchSize, truncateReviewsToLength);
+      featurizer.setIndexFeatures(IndexEmbeddingModel.isIndexModel(net));
+      StreamingScorer.run(net, featurizer, Params.Test_DATA_PATH, Params.resultCsvPath, Params.scoreBatchSize,
+          truncateReviewsToLength, Params.scoringThreads, Params.resumeStreamingScoring);
+      return;
+    }
+    SentimentIterator test = new SentimentIterator(Params.Test_DATA_PATH, embeddings, null, batchSize, truncateReviewsToLength, false, false);
+    test.setIndexFeatures(IndexEmbeddingModel.isIndexModel(net));
+    if (IndexEmbeddingModel.isIndexModel(net) && !Params.batchedScoring) {
+      throw new IllegalStateException("Index-input models can only be scored with Params.batchedScoring");
+    }
 
     DealTest dealTest = new DealTest(Params.Test_DATA_PATH);
     List<String[]> stringsList = new ArrayList<>();
 
-    for (int i =0;i<dealTest.getTestDataList().size();i++){
-      String firstPositiveReview = dealTest.getTestDataReview(i);
-      INDArray features = test.loadFeaturesFromString(firstPositiveReview, truncateReviewsToLength);
-      INDArray networkOutput = net.output(features);
-      int timeSeriesLength = (int) networkOutput.size(2);
-      INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.point(0), NDArrayIndex.all(), NDArrayIndex.point(timeSeriesLength - 1));
+    if (Params.batchedScoring && Params.scoringThreads > 1) {
+      ParallelScorer scorer = new ParallelScorer(net, test, Params.scoringThreads);
+      try {
+        scorer.score(dealTest.getTestDataList(), Params.scoreBatchSize, truncateReviewsToLength);
+      } finally {
+        scorer.shutdown();
+      }
+    } else if (Params.batchedScoring) {
+      scoreBatched(net, test, dealTest, Params.scoreBatchSize, truncateReviewsToLength);
+    } else {
+      //Legacy path, kept to reproduce earlier result files: each review is zero padded to truncateReviewsToLength
+      //without a mask and read at the last padded step, so its scores differ from those of scoreBatched
+      for (int i =0;i<dealTest.getTestDataList().size();i++){
+        String firstPositiveReview = dealTest.getTestDataReview(i);
+        INDArray features = test.loadFeaturesFromString(firstPositiveReview, truncateReviewsToLength);
+        INDArray networkOutput = net.output(features);
+        int timeSeriesLength = (int) networkOutput.size(2);
+        INDArray probabilitiesAtLastWord = networkOutput.get(NDArrayIndex.point(0), NDArrayIndex.all(), NDArrayIndex.point(timeSeriesLength - 1));
 
-      dealTest.setTestDataPositiveRate(i,probabilitiesAtLastWord.getDouble(0));
-      String[] strings= dealTest.getTestDataList().get(i).toStrings();
-      stringsList.add(strings);
+        dealTest.setTestDataPositiveRate(i,probabilitiesAtLastWord.getDouble(0));
+        String[] strings= dealTest.getTestDataList().get(i).toStrings();
+        stringsList.add(strings);
+      }
     }
 
     System.out.println("----- Example complete -----");
     CSVUtils.writeCsvFile(Params.resultCsvPath,dealTest.getTestDataList());
     System.out.println("----- writeCsv complete -----");
   }
+
+  /**
+   * Score every review of dealTest with one masked forward pass per minibatch.
+   * Reviews are sorted by filtered length first, so each minibatch holds reviews of similar length and carries little
+   * padding. The probability at each review's last unmasked step is written back to its own TestData entry.<br>
+   * This is the reference scoring path: it reads the output at the last known word, where training puts the label.
+   * The legacy one-review-at-a-time path (Params.batchedScoring off) runs the zero padding up to the truncate length
+   * through the LSTM and reads the last padded step instead, so for every review shorter than the truncate length its
+   * scores differ slightly and predictions close to 0.5 can flip.
+   */
+  public static void scoreBatched(MultiLayerNetwork net, SentimentIterator test, DealTest dealTest, int batchSize, int truncateReviewsToLength) {
+    scoreBatched(net, test, dealTest.getTestDataList(), batchSize, truncateReviewsToLength);
+  }
+
+  /**
+   * Same as above, for any list of records
+   */
+  public static void scoreBatched(MultiLayerNetwork net, SentimentIterator test, List<TestData> testDataList, int batchSize, int truncateReviewsToLength) {
+    final List<int[]> allTokens = new ArrayList<>(testDataList.size());
+    Integer[] order = new Integer[testDataList.size()];
+    for (int i = 0; i < testDataList.size(); i++) {
+      allTokens.add(test.tokenIds(testDataList.get(i).getReview()));
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(allTokens.get(a).length, allTokens.get(b).length);
+      }
+    });
+
+    long start = System.currentTimeMillis();
+    for (int from = 0; from < order.length; from += batchSize) {
+      int to = Math.min(from + batchSize, order.length);
+      List<int[]> batchTokens = new ArrayList<>(to - from);
+      for (int k = from; k < to; k++) {
+        batchTokens.add(allTokens.get(order[k]));
+      }
+      DataSet batch = test.loadFeaturesFromTokenIds(batchTokens, truncateReviewsToLength);
+      INDArray networkOutput = net.output(batch.getFeatures(), false, batch.getFeaturesMaskArray(), null);
+      for (int k = from; k < to; k++) {
+        int row = k - from;
+        int lastIdx = Math.max(Math.min(batchTokens.get(row).length, truncateReviewsToLength), 1) - 1;
+        testDataList.get(order[k]).setPositiveRate(networkOutput.getDouble(row, 0, lastIdx));
+      }
+    }
+    log.debug("Scored {} reviews in {} ms", order.length, System.currentTimeMillis() - start);
+  }
 }
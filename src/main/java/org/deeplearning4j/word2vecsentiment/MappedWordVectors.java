@@ -0,0 +1,284 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.text.tokenization.tokenizer.preprocessor.CommonPreprocessor;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Flat word-vector file that is memory-mapped instead of parsed, for jobs whose start-up is dominated by
+ * WordVectorSerializer.loadStaticModel.<br>
+ * File layout: header (magic, length and last-modified time of the source model, fingerprint of the CSV files the
+ * vocabulary was pruned to, word count, vector size, hash slot count, rows per segment, matrix offset); the hash
+ * index of {@link EmbeddingTable} (vocabulary index per slot, -1 if empty); the words in sorted order; then, 4 KB
+ * aligned, the float matrix with one row per word in native byte order.<br>
+ * Opening reads the words and the hash index and maps the matrix in segments of whole rows below 1 GB each, so no
+ * vector is parsed or copied: pages are read on first use and shared by every JVM mapping the file.
+ */
+public class MappedWordVectors {
+  private static Logger log = LoggerFactory.getLogger(MappedWordVectors.class);
+
+  private static final int MAGIC = 0x57564d31;
+  private static final long SEGMENT_SIZE = 1L << 30;
+  private static final int ALIGNMENT = 4096;
+
+  /**
+   * Open mappedFile, first converting modelFile into it if it is missing or was written for another version of the
+   * model or of the pruning CSVs
+   *
+   * @param pruneTo Keep only the words occurring in these CSV files (id,review[,label]). Null or empty: keep every word
+   */
+  public static EmbeddingTable openOrConvert(File modelFile, File mappedFile, List<File> pruneTo) throws IOException {
+    if (!isCurrent(modelFile, mappedFile, pruneTo)) {
+      log.info("Converting {} into {}", modelFile, mappedFile);
+      convert(modelFile, mappedFile, pruneTo);
+    }
+    return open(mappedFile);
+  }
+
+  private static boolean isCurrent(File modelFile, File mappedFile, List<File> pruneTo) throws IOException {
+    if (!mappedFile.isFile()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(mappedFile))) {
+      return in.readInt() == MAGIC && in.readLong() == modelFile.length() && in.readLong() == modelFile.lastModified()
+          && in.readLong() == fingerprint(pruneTo);
+    }
+  }
+
+  /**
+   * Length and last-modified time of the pruning CSVs; 0 when not pruning
+   */
+  private static long fingerprint(List<File> pruneTo) {
+    if (pruneTo == null || pruneTo.isEmpty()) {
+      return 0;
+    }
+    long fingerprint = 17;
+    for (File file : pruneTo) {
+      fingerprint = 31 * fingerprint + file.length();
+      fingerprint = 31 * fingerprint + file.lastModified();
+    }
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  /**
+   * Load modelFile once with WordVectorSerializer and write it to mappedFile (temporary file, then rename)
+   */
+  public static void convert(File modelFile, File mappedFile, List<File> pruneTo) throws IOException {
+    WordVectors wordVectors = WordVectorSerializer.loadStaticModel(modelFile);
+    int vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+    Set<String> used = pruneTo == null || pruneTo.isEmpty() ? null : tokens(pruneTo);
+    List<String> kept = new ArrayList<>();
+    int numWords = wordVectors.vocab().numWords();
+    for (int i = 0; i < numWords; i++) {
+      String word = wordVectors.vocab().wordAtIndex(i);
+      if (used == null || used.contains(word)) {
+        kept.add(word);
+      }
+    }
+    String[] words = kept.toArray(new String[kept.size()]);
+    Arrays.sort(words);
+    if (used != null) {
+      log.info("Pruned vocabulary from {} to {} words", numWords, words.length);
+    }
+    int[] slots = EmbeddingTable.slots(words);
+    int rowsPerSegment = (int) (SEGMENT_SIZE / (4L * vectorSize));
+
+    File tmp = new File(mappedFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeLong(modelFile.length());
+      out.writeLong(modelFile.lastModified());
+      out.writeLong(fingerprint(pruneTo));
+      out.writeInt(words.length);
+      out.writeInt(vectorSize);
+      out.writeInt(slots.length);
+      out.writeInt(rowsPerSegment);
+      long headerSize = out.size() + 8;
+      //Words are measured in the modified UTF-8 of writeUTF, which differs from UTF-8 for NUL and non-BMP characters
+      ByteArrayOutputStream wordBytes = new ByteArrayOutputStream();
+      try (DataOutputStream wordOut = new DataOutputStream(wordBytes)) {
+        for (String word : words) {
+          wordOut.writeUTF(word);
+        }
+      }
+      long written = headerSize + 4L * slots.length + wordBytes.size();
+      long matrixOffset = (written + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+      out.writeLong(matrixOffset);
+      for (int slot : slots) {
+        out.writeInt(slot);
+      }
+      wordBytes.writeTo(out);
+      if (out.size() != written) {
+        throw new IOException("Header of " + mappedFile + " is " + out.size() + " bytes, expected " + written);
+      }
+      for (; written < matrixOffset; written++) {
+        out.writeByte(0);
+      }
+
+      boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+      for (String word : words) {
+        for (double value : wordVectors.getWordVector(word)) {
+          int bits = Float.floatToRawIntBits((float) value);
+          out.writeInt(little ? Integer.reverseBytes(bits) : bits);
+        }
+      }
+    }
+    verify(wordVectors, tmp, words);
+    Files.move(tmp.toPath(), mappedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a converted file back as {@link #open} does and compare its vectors with the model for the first and last
+   * word and for every word whose modified UTF-8 differs from its UTF-8 (NUL or characters outside the BMP), which
+   * would shift the matrix. Rows are read with positioned reads, since a mapped file cannot be renamed on Windows.
+   */
+  private static void verify(WordVectors wordVectors, File file, String[] words) throws IOException {
+    Header header = Header.read(file);
+    if (!Arrays.equals(header.words, words)) {
+      throw new IOException("Words of " + file + " do not round-trip");
+    }
+    List<Integer> checked = new ArrayList<>();
+    if (words.length > 0) {
+      checked.add(0);
+      checked.add(words.length - 1);
+    }
+    for (int i = 0; i < words.length; i++) {
+      String word = words[i];
+      if (word.indexOf('\0') >= 0 || word.codePointCount(0, word.length()) != word.length()) {
+        checked.add(i);
+      }
+    }
+    ByteBuffer row = ByteBuffer.allocate(4 * header.vectorSize).order(ByteOrder.nativeOrder());
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      for (int index : checked) {
+        row.clear();
+        long position = header.matrixOffset + 4L * header.vectorSize * index;
+        while (row.hasRemaining()) {
+          if (channel.read(row, position + row.position()) < 0) {
+            throw new IOException("Matrix of " + file + " is truncated");
+          }
+        }
+        double[] expected = wordVectors.getWordVector(words[index]);
+        for (int d = 0; d < header.vectorSize; d++) {
+          if (row.getFloat(4 * d) != (float) expected[d]) {
+            throw new IOException("Vector of \"" + words[index] + "\" does not round-trip through " + file);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tokens of the review column of every line of the CSV files, tokenized as in the sentiment iterators
+   */
+  private static Set<String> tokens(List<File> csvFiles) throws IOException {
+    TokenizerFactory tokenizerFactory = new DefaultTokenizerFactory();
+    tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+    Set<String> tokens = new HashSet<>();
+    for (File file : csvFiles) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          //Everything after the first comma, as DealTest reads a review; for the labelled files this adds the label
+          int comma = line.indexOf(',');
+          if (comma >= 0) {
+            tokens.addAll(tokenizerFactory.create(line.substring(comma + 1)).getTokens());
+          }
+        }
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Everything of a mapped file before the matrix
+   */
+  private static class Header {
+    int numWords;
+    int vectorSize;
+    int rowsPerSegment;
+    long matrixOffset;
+    int[] slots;
+    String[] words;
+
+    static Header read(File mappedFile) throws IOException {
+      Header header = new Header();
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mappedFile), 1 << 16))) {
+        if (in.readInt() != MAGIC) {
+          throw new IOException("Not a mapped word-vector file: " + mappedFile);
+        }
+        in.readLong();
+        in.readLong();
+        in.readLong();
+        header.numWords = in.readInt();
+        header.vectorSize = in.readInt();
+        header.slots = new int[in.readInt()];
+        header.rowsPerSegment = in.readInt();
+        header.matrixOffset = in.readLong();
+        for (int i = 0; i < header.slots.length; i++) {
+          header.slots[i] = in.readInt();
+        }
+        header.words = new String[header.numWords];
+        for (int i = 0; i < header.numWords; i++) {
+          header.words[i] = in.readUTF();
+        }
+      }
+      return header;
+    }
+  }
+
+  /**
+   * Map a file written by {@link #convert(File, File, List)}
+   */
+  public static EmbeddingTable open(File mappedFile) throws IOException {
+    long start = System.currentTimeMillis();
+    Header header = Header.read(mappedFile);
+    int numWords = header.numWords;
+    int vectorSize = header.vectorSize;
+    int rowsPerSegment = header.rowsPerSegment;
+
+    int numSegments = numWords == 0 ? 0 : (numWords + rowsPerSegment - 1) / rowsPerSegment;
+    FloatBuffer[] segments = new FloatBuffer[numSegments];
+    try (RandomAccessFile raf = new RandomAccessFile(mappedFile, "r");
+         FileChannel channel = raf.getChannel()) {
+      for (int i = 0; i < numSegments; i++) {
+        long rows = Math.min(rowsPerSegment, numWords - (long) i * rowsPerSegment);
+        long offset = header.matrixOffset + 4L * vectorSize * i * rowsPerSegment;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * vectorSize * rows)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+      }
+    }
+    log.info("Mapped {} word vectors from {} in {} ms", numWords, mappedFile, System.currentTimeMillis() - start);
+    return new EmbeddingTable(header.words, header.slots, vectorSize, segments, rowsPerSegment);
+  }
+}
@@ -0,0 +1,173 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects concurrent scoring requests into micro-batches and scores each micro-batch with one masked forward pass.<br>
+ * A single scoring thread takes the first waiting request, then keeps adding requests until either maxBatch requests
+ * are collected or maxWaitMillis have passed since the first one was taken. Callers tokenize on their own thread and
+ * only hand over token ids, so the scoring thread does nothing but the forward pass.<br>
+ * At most maxQueued requests wait to be scored; further requests are rejected. Requests whose future was cancelled
+ * or whose deadline has passed are dropped from their micro-batch before the forward pass.
+ */
+public class MicroBatcher {
+  private static Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+  private final MultiLayerNetwork net;
+  private final SentimentIterator featurizer;
+  private final int maxBatch;
+  private final long maxWaitNanos;
+  private final int truncateLength;
+  private final BlockingQueue<Request> queue;
+  private final Thread worker;
+
+  private volatile boolean running = true;
+  private long batches = 0;
+  private long scored = 0;
+
+  private static class Request {
+    private final int[] tokenIds;
+    private final long deadlineNanos;
+    private final CompletableFuture<Double> result = new CompletableFuture<>();
+
+    private Request(int[] tokenIds, long deadlineNanos) {
+      this.tokenIds = tokenIds;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+
+  /**
+   * @param maxQueued Maximum number of requests waiting to be scored
+   */
+  public MicroBatcher(MultiLayerNetwork net, SentimentIterator featurizer, int maxBatch, int maxWaitMillis,
+                      int truncateLength, int maxQueued) {
+    this.net = net;
+    this.queue = new ArrayBlockingQueue<>(maxQueued);
+    this.featurizer = featurizer;
+    this.maxBatch = maxBatch;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.truncateLength = truncateLength;
+    this.worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "micro-batcher");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Queue a review for scoring
+   *
+   * @param timeoutMillis Time after which the review is no longer scored; its future then fails with a
+   *                      TimeoutException
+   * @return Future completed with p(positive) once the review's micro-batch has been scored
+   * @throws RejectedExecutionException If maxQueued requests are already waiting
+   */
+  public CompletableFuture<Double> submit(String review, long timeoutMillis) {
+    Request request = new Request(featurizer.tokenIds(review),
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    if (!queue.offer(request)) {
+      throw new RejectedExecutionException(queue.size() + " requests are already waiting to be scored");
+    }
+    return request.result;
+  }
+
+  private void loop() {
+    List<Request> batch = new ArrayList<>(maxBatch);
+    while (running) {
+      try {
+        Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatch) {
+          long remaining = deadline - System.nanoTime();
+          Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        dropExpired(batch);
+        if (!batch.isEmpty()) {
+          score(batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Throwable t) {
+        //Also errors such as OutOfMemoryError: the callers would otherwise wait for their scores forever
+        log.error("Scoring a micro-batch failed", t);
+        for (Request r : batch) {
+          r.result.completeExceptionally(t);
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Remove the requests that were cancelled or are past their deadline; the latter fail with a TimeoutException
+   */
+  private void dropExpired(List<Request> batch) {
+    long now = System.nanoTime();
+    Iterator<Request> it = batch.iterator();
+    while (it.hasNext()) {
+      Request r = it.next();
+      if (r.result.isDone()) {
+        it.remove();
+      } else if (now - r.deadlineNanos > 0) {
+        r.result.completeExceptionally(new TimeoutException("Not scored before its deadline"));
+        it.remove();
+      }
+    }
+  }
+
+  private void score(List<Request> batch) {
+    List<int[]> allTokens = new ArrayList<>(batch.size());
+    for (Request r : batch) {
+      allTokens.add(r.tokenIds);
+    }
+    DataSet features = featurizer.loadFeaturesFromTokenIds(allTokens, truncateLength);
+    INDArray networkOutput = net.output(features.getFeatures(), false, features.getFeaturesMaskArray(), null);
+    for (int i = 0; i < batch.size(); i++) {
+      int lastIdx = Math.max(Math.min(allTokens.get(i).length, truncateLength), 1) - 1;
+      batch.get(i).result.complete(networkOutput.getDouble(i, 0, lastIdx));
+    }
+    synchronized (this) {
+      batches++;
+      scored += batch.size();
+    }
+  }
+
+  /**
+   * @return Mean number of requests per forward pass so far
+   */
+  public synchronized double meanBatchSize() {
+    return batches == 0 ? 0 : (double) scored / batches;
+  }
+
+  public void shutdown() {
+    running = false;
+    worker.interrupt();
+  }
+}
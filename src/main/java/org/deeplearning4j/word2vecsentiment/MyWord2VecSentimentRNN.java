@@ -6,10 +6,16 @@ import org.datavec.api.records.reader.RecordReader;
 import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
 import org.datavec.api.split.FileSplit;
 import org.datavec.api.util.ClassPathResource;
+import org.deeplearning4j.ThroughputTuner;
 import org.deeplearning4j.datasets.datavec.RecordReaderDataSetIterator;
+import org.deeplearning4j.earlystopping.EarlyStoppingConfiguration;
+import org.deeplearning4j.earlystopping.EarlyStoppingResult;
+import org.deeplearning4j.earlystopping.saver.LocalFileModelSaver;
+import org.deeplearning4j.earlystopping.scorecalc.DataSetLossCalculator;
+import org.deeplearning4j.earlystopping.termination.MaxEpochsTerminationCondition;
+import org.deeplearning4j.earlystopping.termination.MaxTimeIterationTerminationCondition;
+import org.deeplearning4j.earlystopping.termination.ScoreImprovementEpochTerminationCondition;
 import org.deeplearning4j.eval.Evaluation;
-import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
-import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.deeplearning4j.nn.conf.GradientNormalization;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -33,7 +39,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Example: Given a movie review (raw text), classify that movie review as either positive or negative based on the words it contains.
@@ -104,24 +112,248 @@ public class MyWord2VecSentimentRNN {
 
     MultiLayerNetwork net = new MultiLayerNetwork(conf);
     net.init();
-    net.setListeners(new ScoreIterationListener(10));
 
     //DataSetIterators for training and testing respectively
-    WordVectors wordVectors = WordVectorSerializer.loadStaticModel(new File(WORD_VECTORS_PATH));
+    //With int8 word vectors, the held-out accuracy is compared with the float vectors they come from after training
+    boolean checkQuantization = Params.quantizedEmbeddings && !Params.indexInputModel
+            && new File(Params.VALIDATION_DATA_PATH).isFile();
+    EmbeddingTable embeddings = EmbeddingTable.load(new File(WORD_VECTORS_PATH));
 
-    SentimentIterator train = new SentimentIterator(Params.DATA_PATH, wordVectors, batchSize, truncateReviewsToLength, true);
-    SentimentIterator test = new SentimentIterator(Params.Test_DATA_PATH, wordVectors, batchSize, truncateReviewsToLength, false);
+    if (Params.indexInputModel) {
+      //Same LSTM and output layer behind a frozen embedding layer, fed with vocabulary indices instead of vectors
+      net = IndexEmbeddingModel.build(embeddings, seed);
+    }
+
+    //Newest checkpoint of this configuration and data, if any; a finished run deletes its checkpoints
+    File checkpointDir = Params.checkpointDir == null ? null : new File(Params.checkpointDir);
+    long fingerprint = TrainingCheckpoints.fingerprint(net.getLayerWiseConfigurations().toJson()
+            + ",lengthBucketing=" + Params.lengthBucketing + ",indexInputModel=" + Params.indexInputModel
+            + ",trainingReplicas=" + Params.trainingReplicas + ",averagingFrequency=" + Params.averagingFrequency,
+            new File(Params.DATA_PATH), new File(WORD_VECTORS_PATH));
+    File resumeFrom = checkpointDir == null ? null : TrainingCheckpoints.latest(checkpointDir, fingerprint);
+    TrainingCheckpoints.State resumeState = resumeFrom == null ? null : TrainingCheckpoints.restoreState(resumeFrom);
+
+    //Batch size and thread counts measured fastest on this machine, if tuned for the same configuration
+    int prefetchWorkers = Params.prefetchWorkers;
+    if (Params.tunedSettingsPath != null) {
+      File tunedSettings = new File(Params.tunedSettingsPath);
+      long tuningFingerprint = TrainingCheckpoints.fingerprint(net.getLayerWiseConfigurations().toJson()
+              + ",lengthBucketing=" + Params.lengthBucketing + ",indexInputModel=" + Params.indexInputModel
+              + ",streamingCorpus=" + Params.streamingCorpus + ",truncateReviewsToLength=" + truncateReviewsToLength
+              + ",processors=" + Runtime.getRuntime().availableProcessors(),
+              new File(Params.DATA_PATH), new File(WORD_VECTORS_PATH));
+      if (Params.tuneThroughput) {
+        if (resumeState != null) {
+          //The checkpoint position is in minibatches of the batch size it was trained with
+          log.warn("Not tuning: resuming from {}", resumeFrom);
+        } else {
+          tuneThroughput(net.getLayerWiseConfigurations(), embeddings, truncateReviewsToLength, tunedSettings,
+                  tuningFingerprint);
+        }
+      }
+      ThroughputTuner.Trial tuned = ThroughputTuner.load(tunedSettings, tuningFingerprint);
+      if (tuned != null) {
+        log.info("Using tuned settings from {}: {}", tunedSettings, tuned);
+        batchSize = tuned.getBatchSize();
+        prefetchWorkers = tuned.getJavaThreads();
+        tuned.applyNd4jThreads();
+      }
+    }
+
+    if (resumeState != null) {
+      //Minibatch positions of the checkpoint are only valid with its batch size and truncate length
+      batchSize = resumeState.getBatchSize();
+      truncateReviewsToLength = resumeState.getTruncateLength();
+    }
+
+    //Largest batch size and truncate length, up to the configured ones, whose estimated memory fits into the budget
+    BatchMemoryPlanner.Estimate memoryPlan = null;
+    if (Params.memoryBudgetMB > 0) {
+      int bufferedBatches = Params.trainingReplicas > 1 || prefetchWorkers > 0
+              ? Math.max(1, prefetchWorkers) + Params.prefetchQueueDepth + 1 : 1;
+      BatchMemoryPlanner planner = new BatchMemoryPlanner(conf, vectorSize, Params.indexInputModel, bufferedBatches,
+              Params.trainingReplicas);
+      memoryPlan = resumeState != null ? planner.estimate(batchSize, truncateReviewsToLength)
+              : planner.plan((long) Params.memoryBudgetMB << 20, batchSize, truncateReviewsToLength,
+              Params.memoryPlanMinBatchSize);
+      if (memoryPlan == null) {
+        throw new IllegalStateException("Training does not fit into memoryBudgetMB = " + Params.memoryBudgetMB);
+      }
+      if (memoryPlan.getBatchSize() != batchSize || memoryPlan.getLength() != truncateReviewsToLength) {
+        log.warn("Lowering batch size {} and truncate length {} to {} and {} to fit into {} MB", batchSize,
+                truncateReviewsToLength, memoryPlan.getBatchSize(), memoryPlan.getLength(), Params.memoryBudgetMB);
+      }
+      batchSize = memoryPlan.getBatchSize();
+      truncateReviewsToLength = memoryPlan.getLength();
+    }
+
+    SentimentIterator train = new SentimentIterator(Params.DATA_PATH, embeddings, cacheKeyPath(), batchSize, truncateReviewsToLength, true, Params.streamingCorpus);
+    train.setIndexFeatures(Params.indexInputModel);
+    train.setRecordMetrics(true);
+    SentimentIterator test = new SentimentIterator(Params.Test_DATA_PATH, embeddings, null, batchSize, truncateReviewsToLength, false, false);
+
+    if (Params.lengthBucketing) {
+      train.enableLengthBucketing(seed);
+    }
 
-    //train.setCursor(4736);
+    //Continue from the checkpoint found above, if any
+    TrainingCheckpoints checkpoints = null;
+    int firstEpoch = 0;
+    int batchesDone = 0;
+    if (checkpointDir != null) {
+      if (resumeState != null) {
+        net = TrainingCheckpoints.restoreNetwork(resumeFrom);
+        train.restoreOrderState(resumeState.getIteratorState());
+        firstEpoch = resumeState.getEpoch();
+        batchesDone = resumeState.getBatchesDone();
+        log.info("Resuming from {}: epoch {}, minibatch {}", resumeFrom, firstEpoch, batchesDone);
+      }
+      //Replicas are only in sync after an epoch, so they are checkpointed at epoch ends only
+      checkpoints = new TrainingCheckpoints(checkpointDir, fingerprint,
+              Params.trainingReplicas > 1 ? 0 : Params.checkpointEveryBatches, Params.checkpointsKept, train);
+      checkpoints.startEpoch(firstEpoch, batchesDone);
+    }
+    net.setListeners(new ScoreIterationListener(10), new PipelineMetricsListener());
+    if (checkpoints != null) {
+      net.addListeners(checkpoints);
+    }
+
+    //Score every epoch on the validation reviews on a background thread, keep the best model next to MODAL_PATH
+    BackgroundEarlyStopping earlyStopping = null;
+    if (Params.earlyStopping) {
+      SentimentIterator validation = new SentimentIterator(Params.VALIDATION_DATA_PATH, embeddings, null, batchSize, truncateReviewsToLength, false, false);
+      validation.setIndexFeatures(Params.indexInputModel);
+      EarlyStoppingConfiguration<MultiLayerNetwork> esConf = new EarlyStoppingConfiguration.Builder<MultiLayerNetwork>()
+              .epochTerminationConditions(new MaxEpochsTerminationCondition(nEpochs),
+                      new ScoreImprovementEpochTerminationCondition(Params.earlyStoppingPatience))
+              .iterationTerminationConditions(new MaxTimeIterationTerminationCondition(Params.earlyStoppingMaxMinutes, TimeUnit.MINUTES))
+              .scoreCalculator(new DataSetLossCalculator(validation, true))
+              .evaluateEveryNEpochs(1)
+              .modelSaver(new LocalFileModelSaver(new File(Params.MODAL_PATH).getAbsoluteFile().getParent()))
+              .build();
+      earlyStopping = new BackgroundEarlyStopping(esConf);
+      net.addListeners(earlyStopping);
+      if (resumeState != null && resumeState.getEarlyStopping() != null) {
+        earlyStopping.restore(resumeState.getEarlyStopping());
+      }
+      if (resumeState != null && batchesDone == 0 && firstEpoch > 0 && !earlyStopping.isScored(firstEpoch - 1)) {
+        //The epoch-end checkpoint is written before the score of its epoch arrives; score the restored network
+        earlyStopping.epochDone(net, firstEpoch - 1);
+      }
+      if (checkpoints != null) {
+        checkpoints.setEarlyStopping(earlyStopping);
+      }
+    }
+    if (Params.metricsPath != null) {
+      PipelineMetrics.startReporter(new File(Params.metricsPath), Params.metricsFlushSeconds);
+    }
+    DataParallelTrainer trainer = null;
+    double baseline = 0;
+    if (Params.trainingReplicas > 1) {
+      trainer = new DataParallelTrainer(net, train, Params.trainingReplicas, Params.averagingFrequency, prefetchWorkers,
+              Params.prefetchQueueDepth);
+      //The baseline is measured once, on a fresh run; a resumed run only logs the throughput of the replicas
+      baseline = resumeState == null ? trainer.measureSingleReplicaThroughput(20) : 0;
+    }
+    //Started after the replicas and the baseline copy are allocated, so they do not count as growth during training
+    BatchMemoryPlanner.UsageMonitor memoryMonitor = null;
+    if (memoryPlan != null) {
+      memoryMonitor = new BatchMemoryPlanner.UsageMonitor(memoryPlan, Params.memoryDriftTolerance);
+      net.addListeners(memoryMonitor);
+    }
     System.out.println("Starting training");
-    for (int i = 0; i < nEpochs; i++) {
-      net.fit(train);
-      train.reset();
-      System.out.println("Epoch " + i + " complete. Starting evaluation:");
+    if (trainer != null) {
+      if (batchesDone > 0) {
+        log.warn("Checkpoint is in the middle of epoch {}; replicas train that epoch again from its start", firstEpoch);
+      }
+      for (int i = firstEpoch; i < nEpochs; i++) {
+        double throughput = trainer.fitEpoch();
+        if (baseline > 0) {
+          log.info("Epoch {}: {} replicas, {} examples/sec, speedup {}x over a single replica", i, trainer.getNumReplicas(),
+                  String.format("%.1f", throughput), String.format("%.2f", throughput / baseline));
+        } else {
+          log.info("Epoch {}: {} replicas, {} examples/sec", i, trainer.getNumReplicas(), String.format("%.1f", throughput));
+        }
+        System.out.println("Epoch " + i + " complete. Starting evaluation:");
+        if (checkpoints != null) {
+          checkpoints.startEpoch(i + 1, 0);
+          checkpoints.save(net);
+        }
+        if (earlyStopping != null) {
+          earlyStopping.epochDone(net, i);
+          if (earlyStopping.shouldStop()) {
+            break;
+          }
+        }
+      }
+      trainer.shutdown();
+    } else {
+      ParallelPrefetchIterator prefetch = prefetchWorkers > 0
+              ? new ParallelPrefetchIterator(train, prefetchWorkers, Params.prefetchQueueDepth) : null;
+      if (batchesDone > 0) {
+        if (prefetch != null) {
+          prefetch.skip(batchesDone);
+        } else {
+          train.setCursor(batchesDone * batchSize);
+        }
+      }
+      for (int i = firstEpoch; i < nEpochs; i++) {
+        if (prefetch != null) {
+          net.fit(prefetch);
+          log.info("Epoch {}: waited {} ms for {} minibatches", i, prefetch.getWaitMillis(), prefetch.getBatches());
+          prefetch.reset();
+        } else {
+          net.fit(train);
+          train.reset();
+        }
+        System.out.println("Epoch " + i + " complete. Starting evaluation:");
+        if (checkpoints != null) {
+          checkpoints.startEpoch(i + 1, 0);
+          checkpoints.save(net);
+        }
+        if (earlyStopping != null) {
+          earlyStopping.epochDone(net, i);
+          if (earlyStopping.shouldStop()) {
+            break;
+          }
+        }
+      }
+      if (prefetch != null) {
+        prefetch.shutdown();
+      }
+    }
+    if (checkpoints != null) {
+      checkpoints.shutdown();
+    }
+    if (memoryMonitor != null) {
+      log.info("Off-heap memory grew by at most {} MB during training, {} MB planned", memoryMonitor.getPeakBytes() >> 20,
+              (memoryPlan.totalBytes() - memoryPlan.getParameterBytes()) >> 20);
     }
-    //Run evaluation. This is on 25k reviews, so can take some time
-    Evaluation evaluation = net.evaluate(train);
+    if (earlyStopping != null) {
+      EarlyStoppingResult<MultiLayerNetwork> result = earlyStopping.finish();
+      log.info("Early stopping: {} ({}) after {} epochs, best epoch {} with score {}", result.getTerminationReason(),
+              result.getTerminationDetails(), result.getTotalEpochs(), result.getBestModelEpoch(), result.getBestModelScore());
+      if (result.getBestModel() != null) {
+        net = result.getBestModel();
+      }
+    }
+    if (Params.metricsPath != null) {
+      PipelineMetrics.stopReporter();
+      PipelineMetrics.write(new File(Params.metricsPath));
+    }
+    //Run evaluation. This is on 25k reviews, so it is split across evaluationThreads or done on a sample
+    ParallelEvaluator evaluator = new ParallelEvaluator(net, train, Params.evaluationThreads);
+    Evaluation evaluation;
+    if (Params.evaluationSampleSize > 0) {
+      ParallelEvaluator.Sample sample = evaluator.evaluateSample(Params.evaluationSampleSize, seed);
+      log.info(sample.stats());
+      evaluation = sample.getEvaluation();
+    } else {
+      evaluation = evaluator.evaluate();
+    }
+    evaluator.shutdown();
     System.out.println(evaluation.stats());
+    log.info("Final accuracy with {} training replica(s): {}", Params.trainingReplicas, evaluation.accuracy());
     log.info("SAVE TRAINED MODEL");
     // Where to save model
     File locationToSave = new File(Params.MODAL_PATH);
@@ -129,8 +361,78 @@ public class MyWord2VecSentimentRNN {
     boolean saveUpdater = false;
     // ModelSerializer needs modelname, saveUpdater, Location
     ModelSerializer.writeModel(net, locationToSave, saveUpdater);
+    if (IndexEmbeddingModel.isIndexModel(net)) {
+      IndexEmbeddingModel.saveVocabulary(locationToSave, embeddings);
+    }
+    if (checkpoints != null) {
+      //The run is complete, the next one starts over
+      checkpoints.deleteAll();
+    }
+    if (checkQuantization) {
+      logQuantizationError(net, embeddings, batchSize, truncateReviewsToLength);
+    }
 
     System.out.println("----- Example complete -----");
   }
 
+  /**
+   * @return Vocabulary file the token cache of the training reviews is keyed by, null if Params.corpusCache is off
+   */
+  private static String cacheKeyPath() {
+    return Params.corpusCache ? EmbeddingTable.vocabularyFile(new File(WORD_VECTORS_PATH)).getPath() : null;
+  }
+
+  /**
+   * Train conf for a short time with every combination of the Params.tune* grids on the training reviews and save the
+   * best batch size, prefetchWorkers and ND4J thread count to tunedSettings, together with the fingerprint of the
+   * configuration they were tuned for
+   */
+  private static void tuneThroughput(MultiLayerConfiguration conf, final EmbeddingTable embeddings,
+                                     final int truncateReviewsToLength, File tunedSettings, long fingerprint)
+          throws IOException {
+    final String vocabularyPath = cacheKeyPath();
+    ThroughputTuner tuner = new ThroughputTuner(conf, new ThroughputTuner.DataFactory() {
+      @Override
+      public DataSetIterator create(int batchSize, int javaThreads) throws IOException {
+        SentimentIterator train = new SentimentIterator(Params.DATA_PATH, embeddings, vocabularyPath, batchSize,
+                truncateReviewsToLength, true, Params.streamingCorpus);
+        train.setIndexFeatures(Params.indexInputModel);
+        if (Params.lengthBucketing) {
+          train.enableLengthBucketing(Params.seed);
+        }
+        return javaThreads > 0 ? new ParallelPrefetchIterator(train, javaThreads, Params.prefetchQueueDepth) : train;
+      }
+
+      @Override
+      public void release(DataSetIterator iterator) {
+        if (iterator instanceof ParallelPrefetchIterator) {
+          ((ParallelPrefetchIterator) iterator).shutdown();
+        }
+      }
+    });
+    ThroughputTuner.Trial best = tuner.tune(Params.tuneBatchSizes, Params.tuneNd4jThreads, Params.tunePrefetchWorkers,
+            Params.tuneTrialSeconds * 1000L, Params.tuneTargetLoss);
+    if (best != null) {
+      best.save(tunedSettings, fingerprint);
+      log.info("Saved tuned settings to {}", tunedSettings);
+    }
+  }
+
+  /**
+   * Accuracy on the held-out reviews with features from the int8 table the network was trained with, and from the
+   * float word vectors it was quantized from. The float vectors are only loaded here, after training.
+   */
+  private static void logQuantizationError(MultiLayerNetwork net, EmbeddingTable quantized, int batchSize,
+                                           int truncateReviewsToLength) throws IOException {
+    EmbeddingTable floats = EmbeddingTable.load(new File(WORD_VECTORS_PATH), false);
+    log.info("Word vectors: {} MB as int8, {} MB as float", quantized.vectorBytes() >> 20, floats.vectorBytes() >> 20);
+    double int8Accuracy = net.evaluate(new SentimentIterator(Params.VALIDATION_DATA_PATH, quantized, null, batchSize,
+            truncateReviewsToLength, false, false)).accuracy();
+    double floatAccuracy = net.evaluate(new SentimentIterator(Params.VALIDATION_DATA_PATH, floats, null, batchSize,
+            truncateReviewsToLength, false, false)).accuracy();
+    log.info("Held-out accuracy: {} with int8 word vectors, {} with float word vectors, difference {}",
+            String.format("%.4f", int8Accuracy), String.format("%.4f", floatAccuracy),
+            String.format("%+.4f", int8Accuracy - floatAccuracy));
+  }
+
 }
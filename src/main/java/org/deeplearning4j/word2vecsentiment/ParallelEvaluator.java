@@ -0,0 +1,246 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a network on a {@link BatchSource} on several cores at once.<br>
+ * Every thread has its own clone of the network and its own Evaluation, and takes the next minibatch that nobody has
+ * taken yet until all are done. The per-thread Evaluations are then merged; since an Evaluation only adds up counts,
+ * the merged result is exactly the one net.evaluate(iterator) gives on the same examples.<br>
+ * {@link #evaluateSample} evaluates a stratified random sample instead, for a quick estimate with confidence intervals.
+ */
+public class ParallelEvaluator {
+  private static Logger log = LoggerFactory.getLogger(ParallelEvaluator.class);
+  private static final double Z_95 = 1.959964;
+
+  private final BatchSource data;
+  private final MultiLayerNetwork[] replicas;
+  private final ExecutorService workers;
+
+  /**
+   * @param net        Network to evaluate; cloned once per additional thread
+   * @param data       Labelled examples
+   * @param numThreads Number of evaluation threads
+   */
+  public ParallelEvaluator(MultiLayerNetwork net, BatchSource data, int numThreads) {
+    this.data = data;
+    this.replicas = new MultiLayerNetwork[Math.max(1, numThreads)];
+    replicas[0] = net;
+    for (int i = 1; i < replicas.length; i++) {
+      replicas[i] = net.clone();
+    }
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(replicas.length, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "evaluator-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Evaluate every example of the data. Blocks until all threads are done.
+   */
+  public Evaluation evaluate() throws Exception {
+    int batchSize = data.batch();
+    List<int[]> batches = new ArrayList<>();
+    for (int start = 0; start < data.totalExamples(); start += batchSize) {
+      int[] positions = new int[Math.min(batchSize, data.totalExamples() - start)];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = start + i;
+      }
+      batches.add(positions);
+    }
+    return evaluate(batches);
+  }
+
+  /**
+   * Evaluate a random sample of about sampleSize examples, stratified by class: every class contributes in proportion
+   * to its share of the data. Accuracy and per-class recall are estimated for the whole data with 95% confidence
+   * intervals (normal approximation with finite population correction).
+   *
+   * @param seed Seed of the sample
+   */
+  public Sample evaluateSample(int sampleSize, long seed) throws Exception {
+    int total = data.totalExamples();
+    List<List<Integer>> classes = Arrays.asList(new ArrayList<Integer>(), new ArrayList<Integer>());
+    for (int position = 0; position < total; position++) {
+      //Class index as in the labels: 0 positive, 1 negative
+      classes.get(data.isPositiveAt(position) ? 0 : 1).add(position);
+    }
+    Random random = new Random(seed);
+    int[] populationSizes = new int[classes.size()];
+    int[] sampleSizes = new int[classes.size()];
+    List<Integer> sample = new ArrayList<>();
+    for (int c = 0; c < classes.size(); c++) {
+      List<Integer> positions = classes.get(c);
+      populationSizes[c] = positions.size();
+      sampleSizes[c] = (int) Math.min(positions.size(), Math.max(positions.isEmpty() ? 0 : 2,
+          Math.round((double) sampleSize * positions.size() / total)));
+      Collections.shuffle(positions, random);
+      sample.addAll(positions.subList(0, sampleSizes[c]));
+    }
+    Collections.sort(sample);
+
+    int batchSize = data.batch();
+    List<int[]> batches = new ArrayList<>();
+    for (int from = 0; from < sample.size(); from += batchSize) {
+      int[] positions = new int[Math.min(batchSize, sample.size() - from)];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = sample.get(from + i);
+      }
+      batches.add(positions);
+    }
+    Evaluation evaluation = evaluate(batches);
+    return new Sample(evaluation, populationSizes, sampleSizes);
+  }
+
+  private Evaluation evaluate(final List<int[]> batches) throws Exception {
+    final AtomicInteger next = new AtomicInteger();
+    List<Future<Evaluation>> shards = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < replicas.length; i++) {
+      final MultiLayerNetwork replica = replicas[i];
+      shards.add(workers.submit(new Callable<Evaluation>() {
+        @Override
+        public Evaluation call() throws Exception {
+          Evaluation evaluation = new Evaluation(data.getLabels());
+          for (int b = next.getAndIncrement(); b < batches.size(); b = next.getAndIncrement()) {
+            DataSet batch = data.batchOf(batches.get(b));
+            INDArray output = replica.output(batch.getFeatures(), false, batch.getFeaturesMaskArray(),
+                batch.getLabelsMaskArray());
+            evaluation.evalTimeSeries(batch.getLabels(), output, batch.getLabelsMaskArray());
+          }
+          return evaluation;
+        }
+      }));
+    }
+
+    Evaluation merged = null;
+    for (Future<Evaluation> shard : shards) {
+      Evaluation evaluation;
+      try {
+        evaluation = shard.get();
+      } catch (ExecutionException e) {
+        for (Future<Evaluation> f : shards) {
+          f.cancel(true);
+        }
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+      if (merged == null) {
+        merged = evaluation;
+      } else {
+        merged.merge(evaluation);
+      }
+    }
+    long millis = Math.max(1, System.currentTimeMillis() - start);
+    log.info("Evaluated {} examples on {} threads in {} ms, {} examples/sec", merged.getNumRowCounter(),
+        replicas.length, millis, String.format("%.1f", merged.getNumRowCounter() * 1000.0 / millis));
+    return merged;
+  }
+
+  /**
+   * Stop the evaluation threads. The evaluator cannot be used afterwards.
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+
+  /**
+   * Evaluation of a stratified sample, with estimates for the whole data
+   */
+  public static class Sample {
+    private final Evaluation evaluation;
+    private final double[] recall;
+    private final double[] recallMargin;
+    private final double accuracy;
+    private final double accuracyMargin;
+
+    private Sample(Evaluation evaluation, int[] populationSizes, int[] sampleSizes) {
+      this.evaluation = evaluation;
+      int numClasses = populationSizes.length;
+      long total = 0;
+      for (int size : populationSizes) {
+        total += size;
+      }
+      recall = new double[numClasses];
+      recallMargin = new double[numClasses];
+      double estimate = 0;
+      double variance = 0;
+      for (int c = 0; c < numClasses; c++) {
+        int n = sampleSizes[c];
+        if (n == 0) {
+          continue;
+        }
+        double p = (double) evaluation.getConfusionMatrix().getCount(c, c) / n;
+        double classVariance = n < 2 ? 0 : p * (1 - p) / (n - 1) * (1 - (double) n / populationSizes[c]);
+        double weight = (double) populationSizes[c] / total;
+        recall[c] = p;
+        recallMargin[c] = Z_95 * Math.sqrt(classVariance);
+        estimate += weight * p;
+        variance += weight * weight * classVariance;
+      }
+      accuracy = estimate;
+      accuracyMargin = Z_95 * Math.sqrt(variance);
+    }
+
+    /**
+     * @return Evaluation of the sampled examples only
+     */
+    public Evaluation getEvaluation() {
+      return evaluation;
+    }
+
+    /**
+     * @return Estimated accuracy on the whole data
+     */
+    public double getAccuracy() {
+      return accuracy;
+    }
+
+    /**
+     * @return Half-width of the 95% confidence interval of {@link #getAccuracy()}
+     */
+    public double getAccuracyMargin() {
+      return accuracyMargin;
+    }
+
+    public double getRecall(int classIndex) {
+      return recall[classIndex];
+    }
+
+    public double getRecallMargin(int classIndex) {
+      return recallMargin[classIndex];
+    }
+
+    public String stats() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("Sampled %d examples: accuracy %.4f +/- %.4f (95%%)", evaluation.getNumRowCounter(),
+          accuracy, accuracyMargin));
+      for (int c = 0; c < recall.length; c++) {
+        sb.append(String.format(", recall of %s %.4f +/- %.4f", evaluation.getClassLabel(c), recall[c], recallMargin[c]));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps a {@link BatchSource} (SentimentIterator or SentimentExampleIterator) and builds the next minibatches on a
+ * pool of worker threads while the network trains on the current one.<br>
+ * At most queueDepth minibatches are in flight. They are handed out strictly in cursor order, so the sequence of
+ * minibatches is exactly the one a single-threaded iterator would produce and runs stay reproducible.<br>
+ * The time the consumer spends blocked on a minibatch that is not ready yet is recorded, see {@link #getWaitMillis()}.
+ * It and the minibatches handed out also go to {@link PipelineMetrics} if the wrapped iterator records metrics.
+ * <br>
+ * A sharded prefetcher only hands out every numShards-th minibatch, starting at minibatch shard, so several consumers
+ * can each read a disjoint part of one epoch from their own queue.
+ */
+public class ParallelPrefetchIterator implements DataSetIterator {
+  private static final long serialVersionUID = 1L;
+
+  private final BatchSource source;
+  private final int batchSize;
+  private final int queueDepth;
+  private final ExecutorService workers;
+  private final ArrayDeque<Future<DataSet>> queue = new ArrayDeque<>();
+  private final int shard;
+  private final int numShards;
+
+  private int submitted;
+  private long waitNanos = 0;
+  private int batches = 0;
+  private DataSetPreProcessor preProcessor;
+  private boolean recordMetrics;
+
+  /**
+   * @param source     Iterator to prefetch from
+   * @param numWorkers Number of threads building minibatches
+   * @param queueDepth Maximum number of minibatches built ahead of the consumer
+   */
+  public ParallelPrefetchIterator(BatchSource source, int numWorkers, int queueDepth) {
+    this(source, numWorkers, queueDepth, 0, 1);
+  }
+
+  /**
+   * Prefetcher for one shard of the minibatches. With more than one shard, {@link #reset()} does not reset the
+   * wrapped iterator: reset it once yourself, then reset every shard.
+   *
+   * @param shard     Index of this shard, 0 to numShards - 1
+   * @param numShards Number of shards the minibatches are dealt out to
+   */
+  public ParallelPrefetchIterator(BatchSource source, int numWorkers, int queueDepth, int shard, int numShards) {
+    this.source = source;
+    this.batchSize = source.batch();
+    this.queueDepth = Math.max(1, queueDepth);
+    this.shard = shard;
+    this.numShards = numShards;
+    this.submitted = shard * batchSize;
+    this.recordMetrics = source.isRecordMetrics();
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(Math.max(1, numWorkers), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "batch-prefetch-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  private void fill() {
+    while (queue.size() < queueDepth && submitted < source.totalExamples()) {
+      final int start = submitted;
+      queue.add(workers.submit(new Callable<DataSet>() {
+        @Override
+        public DataSet call() throws Exception {
+          return source.batchAt(start, batchSize);
+        }
+      }));
+      submitted += batchSize * numShards;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    fill();
+    return !queue.isEmpty();
+  }
+
+  @Override
+  public DataSet next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Future<DataSet> head = queue.poll();
+    long start = System.nanoTime();
+    DataSet dataSet;
+    try {
+      dataSet = head.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    long waited = System.nanoTime() - start;
+    waitNanos += waited;
+    batches++;
+    fill();
+    if (preProcessor != null) {
+      preProcessor.preProcess(dataSet);
+    }
+    if (recordMetrics) {
+      PipelineMetrics.add(PipelineMetrics.Stage.WAIT, waited);
+      PipelineMetrics.batchDelivered(dataSet);
+    }
+    return dataSet;
+  }
+
+  @Override
+  public DataSet next(int num) {
+    if (num != batchSize) {
+      throw new UnsupportedOperationException("Prefetching only supports the batch size of the wrapped iterator");
+    }
+    return next();
+  }
+
+  /**
+   * Drop all minibatches in flight, reset the wrapped iterator (unless sharded) and start again from the first example.
+   * Also clears the wait statistics.
+   */
+  @Override
+  public void reset() {
+    for (Future<DataSet> f : queue) {
+      f.cancel(true);
+    }
+    queue.clear();
+    if (numShards == 1) {
+      source.reset();
+    }
+    submitted = shard * batchSize;
+    waitNanos = 0;
+    batches = 0;
+  }
+
+  /**
+   * Skip the next numBatches minibatches of this shard without building them, e.g. to continue an epoch from a
+   * checkpoint. Skipped minibatches count towards {@link #getBatches()}.
+   */
+  public void skip(int numBatches) {
+    for (Future<DataSet> f : queue) {
+      f.cancel(true);
+    }
+    queue.clear();
+    batches += numBatches;
+    submitted = shard * batchSize + batches * batchSize * numShards;
+  }
+
+  /**
+   * Stop the worker threads. The iterator cannot be used afterwards.
+   */
+  public void shutdown() {
+    queue.clear();
+    workers.shutdownNow();
+  }
+
+  /**
+   * Override whether the minibatches handed out are recorded in {@link PipelineMetrics}, e.g. off for a trial run on
+   * the training data. Defaults to {@link BatchSource#isRecordMetrics()} of the wrapped iterator.
+   */
+  public void setRecordMetrics(boolean recordMetrics) {
+    this.recordMetrics = recordMetrics;
+  }
+
+  /**
+   * @return Total time next() was blocked waiting for a minibatch since the last reset, in milliseconds
+   */
+  public long getWaitMillis() {
+    return waitNanos / 1000000;
+  }
+
+  /**
+   * @return Number of minibatches handed out since the last reset
+   */
+  public int getBatches() {
+    return batches;
+  }
+
+  @Override
+  public int inputColumns() {
+    return source.inputColumns();
+  }
+
+  @Override
+  public int totalOutcomes() {
+    return source.totalOutcomes();
+  }
+
+  @Override
+  public boolean resetSupported() {
+    return true;
+  }
+
+  @Override
+  public boolean asyncSupported() {
+    return false;
+  }
+
+  @Override
+  public int batch() {
+    return batchSize;
+  }
+
+  @Override
+  public void setPreProcessor(DataSetPreProcessor preProcessor) {
+    this.preProcessor = preProcessor;
+  }
+
+  @Override
+  public DataSetPreProcessor getPreProcessor() {
+    return preProcessor;
+  }
+
+  @Override
+  public List<String> getLabels() {
+    return source.getLabels();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,122 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores test records on several cores at once.<br>
+ * The record list is split into one contiguous shard per thread and every thread runs
+ * {@link LoadWord2VecSentimentRNN#scoreBatched} on its shard with its own clone of the network, so threads share
+ * nothing but the (read-only) word vectors. Each score is written back to its own TestData entry, so the list keeps
+ * its original ID order and can be passed to CSVUtils as is.<br>
+ * ND4J parallelizes each forward pass internally as well; with many scoring threads, limit that with the
+ * OMP_NUM_THREADS environment variable to avoid oversubscribing the cores.<br>
+ * Timings of every call are logged at debug level, since StreamingScorer calls it once per chunk; {@link #shutdown()}
+ * logs the totals of all calls once.
+ */
+public class ParallelScorer {
+  private static Logger log = LoggerFactory.getLogger(ParallelScorer.class);
+
+  private final SentimentIterator featurizer;
+  private final MultiLayerNetwork[] replicas;
+  private final ExecutorService workers;
+  private final long[] threadRecords;
+  private final long[] threadMillis;
+  private long recordsScored;
+  private long scoringMillis;
+
+  /**
+   * @param net        Network to score with; cloned once per thread
+   * @param featurizer Iterator used for tokenization and feature building
+   * @param numThreads Number of scoring threads
+   */
+  public ParallelScorer(MultiLayerNetwork net, SentimentIterator featurizer, int numThreads) {
+    this.featurizer = featurizer;
+    this.replicas = new MultiLayerNetwork[Math.max(1, numThreads)];
+    replicas[0] = net;
+    for (int i = 1; i < replicas.length; i++) {
+      replicas[i] = net.clone();
+    }
+    this.threadRecords = new long[replicas.length];
+    this.threadMillis = new long[replicas.length];
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(replicas.length, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "scorer-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Score all records and set their positive rate. Blocks until every shard is done.
+   */
+  public void score(List<TestData> testDataList, final int batchSize, final int truncateReviewsToLength) throws Exception {
+    int shardSize = (testDataList.size() + replicas.length - 1) / replicas.length;
+    List<Future<Long>> shards = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < replicas.length && i * shardSize < testDataList.size(); i++) {
+      final MultiLayerNetwork replica = replicas[i];
+      final List<TestData> shard = testDataList.subList(i * shardSize, Math.min((i + 1) * shardSize, testDataList.size()));
+      shards.add(workers.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          long shardStart = System.currentTimeMillis();
+          LoadWord2VecSentimentRNN.scoreBatched(replica, featurizer, shard, batchSize, truncateReviewsToLength);
+          return System.currentTimeMillis() - shardStart;
+        }
+      }));
+    }
+
+    for (int i = 0; i < shards.size(); i++) {
+      long millis;
+      try {
+        millis = shards.get(i).get();
+      } catch (ExecutionException e) {
+        for (Future<Long> f : shards) {
+          f.cancel(true);
+        }
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+      int records = Math.min(shardSize, testDataList.size() - i * shardSize);
+      log.debug("Thread {}: {} records in {} ms, {} records/sec", i, records, millis,
+              String.format("%.1f", records * 1000.0 / Math.max(1, millis)));
+      threadRecords[i] += records;
+      threadMillis[i] += millis;
+    }
+    long millis = System.currentTimeMillis() - start;
+    log.debug("Scored {} records on {} threads in {} ms, {} records/sec", testDataList.size(), shards.size(), millis,
+            String.format("%.1f", testDataList.size() * 1000.0 / Math.max(1, millis)));
+    recordsScored += testDataList.size();
+    scoringMillis += millis;
+  }
+
+  /**
+   * Stop the scoring threads and log the throughput of all calls, in total and per thread. The scorer cannot be used
+   * afterwards.
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+    if (recordsScored > 0) {
+      log.info("Scored {} records on {} threads in {} ms, {} records/sec", recordsScored, replicas.length, scoringMillis,
+              String.format("%.1f", recordsScored * 1000.0 / Math.max(1, scoringMillis)));
+      for (int i = 0; i < replicas.length; i++) {
+        log.info("Thread {}: {} records in {} ms, {} records/sec", i, threadRecords[i], threadMillis[i],
+                String.format("%.1f", threadRecords[i] * 1000.0 / Math.max(1, threadMillis[i])));
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timers and counters for the stages of the sentiment training pipeline.<br>
+ * Recording a stage is two System.nanoTime() calls and two LongAdder increments, so the metrics are always collected.
+ * Only the iterator the network trains on records them (see {@link SentimentIterator#setRecordMetrics(boolean)}), so
+ * evaluation, validation and tuning do not show up as training throughput.
+ * {@link #startReporter(File, int)} additionally writes them to a file in the Prometheus text format every few
+ * seconds (write to a temporary file, then rename), e.g. for the node_exporter textfile collector or for tailing.
+ * <p>
+ * Usage: {@code long t = PipelineMetrics.start(); ...; PipelineMetrics.stop(Stage.TOKENIZE, t);}
+ */
+public class PipelineMetrics {
+  private static Logger log = LoggerFactory.getLogger(PipelineMetrics.class);
+
+  /** Timed stages. Iterator stages are summed over all threads building minibatches */
+  public enum Stage {
+    READ,         //Reading reviews from the CSV file, the mapped CSV or review files
+    TOKENIZE,     //Tokenizer and token preprocessor
+    OOV_FILTER,   //Dropping unknown words and mapping the rest to vocabulary indices
+    GATHER,       //Copying word vectors into the features array
+    FILL,         //Filling labels and masks
+    BATCH,        //Whole minibatch assembly, including the stages above
+    WAIT,         //Training thread blocked on the prefetcher
+    FORWARD,      //Forward pass
+    BACKWARD,     //Backward pass
+    UPDATE        //Updater and parameter update
+  }
+
+  /** Plain counters */
+  public enum Counter {
+    EXAMPLES,     //Examples handed to the training loop
+    TOKENS,       //Unmasked time steps handed to the training loop
+    BATCHES       //Minibatches handed to the training loop
+  }
+
+  private static final LongAdder[] stageNanos = adders(Stage.values().length);
+  private static final LongAdder[] stageCalls = adders(Stage.values().length);
+  private static final LongAdder[] counters = adders(Counter.values().length);
+  private static volatile long batchDeliveredNanos = 0;
+
+  private static ScheduledExecutorService reporter;
+  private static long lastReportNanos;
+  private static long lastExamples;
+  private static long lastTokens;
+
+  private static LongAdder[] adders(int n) {
+    LongAdder[] adders = new LongAdder[n];
+    for (int i = 0; i < n; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  public static long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Record one call of a stage that began at startNanos (from {@link #start()})
+   */
+  public static void stop(Stage stage, long startNanos) {
+    add(stage, System.nanoTime() - startNanos);
+  }
+
+  public static void add(Stage stage, long nanos) {
+    stageNanos[stage.ordinal()].add(nanos);
+    stageCalls[stage.ordinal()].increment();
+  }
+
+  public static void count(Counter counter, long n) {
+    counters[counter.ordinal()].add(n);
+  }
+
+  public static long nanos(Stage stage) {
+    return stageNanos[stage.ordinal()].sum();
+  }
+
+  public static long calls(Stage stage) {
+    return stageCalls[stage.ordinal()].sum();
+  }
+
+  public static long count(Counter counter) {
+    return counters[counter.ordinal()].sum();
+  }
+
+  /**
+   * Count a minibatch the training thread just received and mark the time; the forward pass of that minibatch starts
+   * here. Minibatches that are built but never handed out, e.g. prefetched before a reset, are not counted.
+   */
+  public static void batchDelivered(DataSet dataSet) {
+    count(Counter.BATCHES, 1);
+    count(Counter.EXAMPLES, dataSet.numExamples());
+    INDArray featuresMask = dataSet.getFeaturesMaskArray();
+    if (featuresMask != null) {
+      count(Counter.TOKENS, featuresMask.sumNumber().longValue());
+    }
+    batchDeliveredNanos = System.nanoTime();
+  }
+
+  static long lastBatchDeliveredNanos() {
+    return batchDeliveredNanos;
+  }
+
+  /**
+   * Write the metrics to file every periodSeconds seconds, on a daemon thread, until {@link #stopReporter()}
+   */
+  public static synchronized void startReporter(final File file, int periodSeconds) {
+    stopReporter();
+    lastReportNanos = System.nanoTime();
+    lastExamples = count(Counter.EXAMPLES);
+    lastTokens = count(Counter.TOKENS);
+    reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "pipeline-metrics");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    reporter.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write(file);
+        } catch (IOException e) {
+          log.warn("Could not write metrics to {}: {}", file, e.getMessage());
+        }
+      }
+    }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the reporter, if running
+   */
+  public static synchronized void stopReporter() {
+    if (reporter != null) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+  }
+
+  /**
+   * Write the current metrics to file
+   */
+  public static synchronized void write(File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (PrintWriter pw = new PrintWriter(tmp, StandardCharsets.UTF_8.name())) {
+      pw.print(toPrometheus());
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return All metrics in the Prometheus text exposition format. Rates are over the time since the previous call
+   */
+  public static synchronized String toPrometheus() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# TYPE sentiment_stage_seconds_total counter\n");
+    for (Stage stage : Stage.values()) {
+      sb.append(String.format(Locale.ROOT, "sentiment_stage_seconds_total{stage=\"%s\"} %.6f\n",
+          stage.name().toLowerCase(Locale.ROOT), nanos(stage) / 1e9));
+    }
+    sb.append("# TYPE sentiment_stage_calls_total counter\n");
+    for (Stage stage : Stage.values()) {
+      sb.append(String.format(Locale.ROOT, "sentiment_stage_calls_total{stage=\"%s\"} %d\n",
+          stage.name().toLowerCase(Locale.ROOT), calls(stage)));
+    }
+    for (Counter counter : Counter.values()) {
+      String name = "sentiment_" + counter.name().toLowerCase(Locale.ROOT) + "_total";
+      sb.append("# TYPE ").append(name).append(" counter\n");
+      sb.append(name).append(' ').append(count(counter)).append('\n');
+    }
+
+    long now = System.nanoTime();
+    double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+    long examples = count(Counter.EXAMPLES);
+    long tokens = count(Counter.TOKENS);
+    gauge(sb, "sentiment_examples_per_second", (examples - lastExamples) / seconds);
+    gauge(sb, "sentiment_tokens_per_second", (tokens - lastTokens) / seconds);
+    lastReportNanos = now;
+    lastExamples = examples;
+    lastTokens = tokens;
+
+    gauge(sb, "sentiment_offheap_bytes", Pointer.totalBytes());
+    gauge(sb, "sentiment_physical_bytes", Pointer.physicalBytes());
+    gauge(sb, "sentiment_heap_used_bytes", Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    return sb.toString();
+  }
+
+  private static void gauge(StringBuilder sb, String name, double value) {
+    sb.append("# TYPE ").append(name).append(" gauge\n");
+    sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.1f", value)).append('\n');
+  }
+
+  /**
+   * Clear all timers and counters
+   */
+  public static synchronized void reset() {
+    for (LongAdder adder : stageNanos) {
+      adder.reset();
+    }
+    for (LongAdder adder : stageCalls) {
+      adder.reset();
+    }
+    for (LongAdder adder : counters) {
+      adder.reset();
+    }
+    lastExamples = 0;
+    lastTokens = 0;
+  }
+}
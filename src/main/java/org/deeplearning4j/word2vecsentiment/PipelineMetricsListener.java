@@ -0,0 +1,49 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Training listener that splits the time of each fit iteration into forward pass, backward pass and parameter update
+ * and records them in {@link PipelineMetrics}.<br>
+ * An iteration starts when the training iterator handed out its minibatch
+ * ({@link PipelineMetrics#batchDelivered(org.nd4j.linalg.dataset.DataSet)}) or, if that was earlier, when the previous
+ * iteration ended.
+ */
+public class PipelineMetricsListener extends BaseTrainingListener {
+  private long iterationEnd = System.nanoTime();
+  private long forwardEnd;
+  private long backwardEnd;
+
+  @Override
+  public void onForwardPass(Model model, List<INDArray> activations) {
+    forwardDone();
+  }
+
+  @Override
+  public void onForwardPass(Model model, Map<String, INDArray> activations) {
+    forwardDone();
+  }
+
+  private void forwardDone() {
+    forwardEnd = System.nanoTime();
+    long iterationStart = Math.max(iterationEnd, PipelineMetrics.lastBatchDeliveredNanos());
+    PipelineMetrics.add(PipelineMetrics.Stage.FORWARD, forwardEnd - iterationStart);
+  }
+
+  @Override
+  public void onBackwardPass(Model model) {
+    backwardEnd = System.nanoTime();
+    PipelineMetrics.add(PipelineMetrics.Stage.BACKWARD, backwardEnd - forwardEnd);
+  }
+
+  @Override
+  public void iterationDone(Model model, int iteration, int epoch) {
+    iterationEnd = System.nanoTime();
+    PipelineMetrics.add(PipelineMetrics.Stage.UPDATE, iterationEnd - backwardEnd);
+  }
+}
@@ -0,0 +1,152 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte-offset index over a sentiment CSV file ("id,review,Positive|Negative" per line, UTF-8) for corpora larger
+ * than the heap.<br>
+ * The file is memory-mapped and scanned once. For every accepted line only the offset and byte length of the review
+ * field are kept, in primitive arrays per class, so heap use does not grow with the length of the reviews.
+ * Reviews are decoded from the mapped file on demand.<br>
+ * Lines end at \n, \r or \r\n like with Scanner.nextLine(), and are accepted exactly like SentimentIterator does with
+ * dataLine.split(","): three fields after dropping trailing empty fields, with the last one being Positive or Negative.
+ */
+public class ReviewIndex {
+  private static final long SEGMENT_SIZE = 1L << 30;
+  private static final byte[] POSITIVE = "Positive".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] NEGATIVE = "Negative".getBytes(StandardCharsets.UTF_8);
+
+  private final MappedByteBuffer[] segments;
+  private final Entries positive = new Entries();
+  private final Entries negative = new Entries();
+
+  public ReviewIndex(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      long size = channel.size();
+      segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+      }
+      scan(size);
+    }
+  }
+
+  private byte byteAt(long position) {
+    return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+  }
+
+  private void scan(long size) {
+    long lineStart = 0;
+    long[] commas = new long[4];
+    int numCommas = 0;
+    for (long p = 0; p <= size; p++) {
+      byte b = p < size ? byteAt(p) : (byte) '\n';
+      if (b == ',') {
+        if (numCommas == commas.length) {
+          commas = Arrays.copyOf(commas, commas.length * 2);
+        }
+        commas[numCommas++] = p;
+      } else if (b == '\n' || b == '\r') {
+        addLine(lineStart, p, commas, numCommas);
+        if (b == '\r' && p + 1 < size && byteAt(p + 1) == '\n') {
+          p++;
+        }
+        lineStart = p + 1;
+        numCommas = 0;
+      }
+    }
+  }
+
+  private void addLine(long lineStart, long lineEnd, long[] commas, int numCommas) {
+    //Emulate String.split(","): trailing empty fields are dropped
+    int fields = numCommas + 1;
+    long lastFieldEnd = lineEnd;
+    while (fields > 0 && lastFieldEnd == (fields > 1 ? commas[fields - 2] + 1 : lineStart)) {
+      fields--;
+      if (fields > 0) {
+        lastFieldEnd = commas[fields - 1];
+      }
+    }
+    if (fields != 3) {
+      return;
+    }
+    long reviewStart = commas[0] + 1;
+    long labelStart = commas[1] + 1;
+    int reviewLength = (int) (commas[1] - reviewStart);
+    if (matches(labelStart, lastFieldEnd, POSITIVE)) {
+      positive.add(reviewStart, reviewLength);
+    } else if (matches(labelStart, lastFieldEnd, NEGATIVE)) {
+      negative.add(reviewStart, reviewLength);
+    }
+  }
+
+  private boolean matches(long start, long end, byte[] expected) {
+    if (end - start != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (byteAt(start + i) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int numPositive() {
+    return positive.size;
+  }
+
+  public int numNegative() {
+    return negative.size;
+  }
+
+  /**
+   * Decode one review from the mapped file
+   *
+   * @param isPositive   If true: index into the positive reviews, otherwise into the negative reviews
+   * @param reviewNumber Index of the review within its class
+   */
+  public String review(boolean isPositive, int reviewNumber) {
+    Entries entries = isPositive ? positive : negative;
+    if (reviewNumber >= entries.size) {
+      throw new ArrayIndexOutOfBoundsException(reviewNumber);
+    }
+    long offset = entries.offsets[reviewNumber];
+    byte[] bytes = new byte[entries.lengths[reviewNumber]];
+    int n = 0;
+    while (n < bytes.length) {
+      long position = offset + n;
+      ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+      segment.position((int) (position % SEGMENT_SIZE));
+      int chunk = Math.min(bytes.length - n, segment.remaining());
+      segment.get(bytes, n, chunk);
+      n += chunk;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Entries {
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size = 0;
+
+    private void add(long offset, int length) {
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+      }
+      offsets[size] = offset;
+      lengths[size] = length;
+      size++;
+    }
+  }
+}
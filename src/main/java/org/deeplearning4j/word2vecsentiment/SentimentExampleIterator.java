@@ -18,6 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -31,8 +32,7 @@ import java.util.NoSuchElementException;
  *
  * @author Alex Black
  */
-public class SentimentExampleIterator implements DataSetIterator {
-  private final WordVectors wordVectors;
+public class SentimentExampleIterator implements DataSetIterator, BatchSource {
   private final int batchSize;
   private final int vectorSize;
   private final int truncateLength;
@@ -41,6 +41,8 @@ public class SentimentExampleIterator implements DataSetIterator {
   private final File[] positiveFiles;
   private final File[] negativeFiles;
   private final TokenizerFactory tokenizerFactory;
+  private final EmbeddingTable embeddings;
+  private volatile boolean recordMetrics = false;
 
   /**
    * @param dataDirectory  the directory of the IMDB review data set
@@ -50,8 +52,15 @@ public class SentimentExampleIterator implements DataSetIterator {
    * @param train          If true: return the training data. If false: return the testing data.
    */
   public SentimentExampleIterator(String dataDirectory, WordVectors wordVectors, int batchSize, int truncateLength, boolean train) throws IOException {
+    this(dataDirectory, EmbeddingTable.of(wordVectors), batchSize, truncateLength, train);
+  }
+
+  /**
+   * Same as above over an embedding table, e.g. a quantized one from {@link EmbeddingTable#load(File, boolean)}
+   */
+  public SentimentExampleIterator(String dataDirectory, EmbeddingTable embeddings, int batchSize, int truncateLength, boolean train) throws IOException {
     this.batchSize = batchSize;
-    this.vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+    this.vectorSize = embeddings.vectorSize();
 
 
     File p = new File(FilenameUtils.concat(dataDirectory, "aclImdb/" + (train ? "train" : "test") + "/pos/") + "/");
@@ -59,8 +68,8 @@ public class SentimentExampleIterator implements DataSetIterator {
     positiveFiles = p.listFiles();
     negativeFiles = n.listFiles();
 
-    this.wordVectors = wordVectors;
     this.truncateLength = truncateLength;
+    this.embeddings = embeddings;
 
     tokenizerFactory = new DefaultTokenizerFactory();
     tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
@@ -73,46 +82,73 @@ public class SentimentExampleIterator implements DataSetIterator {
       throw new NoSuchElementException();
     }
     try {
-      return nextDataSet(num);
+      DataSet dataSet = nextDataSet(num);
+      if (recordMetrics) {
+        PipelineMetrics.batchDelivered(dataSet);
+      }
+      return dataSet;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
   private DataSet nextDataSet(int num) throws IOException {
+    DataSet dataSet = batchAt(cursor, num);
+    cursor = Math.min(cursor + num, totalExamples());
+    return dataSet;
+  }
+
+  /**
+   * Build the minibatch of (at most) num examples starting at example index start.
+   * Does not move the cursor and only reads shared state, so several batches can be built concurrently.
+   */
+  @Override
+  public DataSet batchAt(int start, int num) throws IOException {
+    int[] positions = new int[Math.max(0, Math.min(num, totalExamples() - start))];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = start + i;
+    }
+    return batchOf(positions);
+  }
+
+  @Override
+  public DataSet batchOf(int[] positions) throws IOException {
+    long batchStart = PipelineMetrics.start();
+    int num = positions.length;
     //First: load reviews to String. Alternate positive and negative reviews
     List<String> reviews = new ArrayList<>(num);
     boolean[] positive = new boolean[num];
-    for (int i = 0; i < num && cursor < totalExamples(); i++) {
-      if (cursor % 2 == 0) {
+    long readStart = PipelineMetrics.start();
+    for (int i = 0; i < num; i++) {
+      int position = positions[i];
+      if (isPositiveAt(position)) {
         //Load positive review
-        int posReviewNumber = cursor / 2;
+        int posReviewNumber = position / 2;
         String review = FileUtils.readFileToString(positiveFiles[posReviewNumber]);
         reviews.add(review);
         positive[i] = true;
       } else {
         //Load negative review
-        int negReviewNumber = cursor / 2;
+        int negReviewNumber = position / 2;
         String review = FileUtils.readFileToString(negativeFiles[negReviewNumber]);
         reviews.add(review);
         positive[i] = false;
       }
-      cursor++;
     }
+    stopTimer(PipelineMetrics.Stage.READ, readStart);
 
-    //Second: tokenize reviews and filter out unknown words
-    List<List<String>> allTokens = new ArrayList<>(reviews.size());
+    //Second: tokenize reviews and map the known words to their vocabulary index
+    List<int[]> allTokens = new ArrayList<>(reviews.size());
     int maxLength = 0;
     for (String s : reviews) {
+      long tokenizeStart = PipelineMetrics.start();
       List<String> tokens = tokenizerFactory.create(s).getTokens();
-      List<String> tokensFiltered = new ArrayList<>();
-      for (String t : tokens) {
-        if (wordVectors.hasWord(t)){
-          tokensFiltered.add(t);
-        }
-      }
+      long lookupStart = PipelineMetrics.start();
+      stopTimer(PipelineMetrics.Stage.TOKENIZE, tokenizeStart, lookupStart);
+      int[] tokensFiltered = embeddings.lookup(tokens, truncateLength);
+      stopTimer(PipelineMetrics.Stage.OOV_FILTER, lookupStart);
       allTokens.add(tokensFiltered);
-      maxLength = Math.max(maxLength, tokensFiltered.size());
+      maxLength = Math.max(maxLength, tokensFiltered.length);
     }
 
     //If longest review exceeds 'truncateLength': only take the first 'truncateLength' words
@@ -122,7 +158,11 @@ public class SentimentExampleIterator implements DataSetIterator {
 
     //Create data for training
     //Here: we have reviews.size() examples of varying lengths
-    INDArray features = Nd4j.create(new int[]{reviews.size(), vectorSize, maxLength}, 'f');
+    //All word vectors of the minibatch are gathered into the features array in one pass
+    long gatherStart = PipelineMetrics.start();
+    INDArray features = embeddings.gather(allTokens, maxLength);
+    stopTimer(PipelineMetrics.Stage.GATHER, gatherStart);
+    long fillStart = PipelineMetrics.start();
     INDArray labels = Nd4j.create(new int[]{reviews.size(), 2, maxLength}, 'f');    //Two labels: positive or negative
     //Because we are dealing with reviews of different lengths and only one output at the final time step: use padding arrays
     //Mask arrays contain 1 if data is present at that time step for that example, or 0 if data is just padding
@@ -130,36 +170,35 @@ public class SentimentExampleIterator implements DataSetIterator {
     INDArray labelsMask = Nd4j.zeros(reviews.size(), maxLength);
 
     for (int i = 0; i < reviews.size(); i++) {
-      List<String> tokens = allTokens.get(i);
+      int[] tokens = allTokens.get(i);
 
       // Get the truncated sequence length of document (i)
-      int seqLength = Math.min(tokens.size(), maxLength);
-
-      // Get all wordvectors for the current document and transpose them to fit the 2nd and 3rd feature shape
-      final INDArray vectors = wordVectors.getWordVectors(tokens.subList(0, seqLength)).transpose();
-
-      // Put wordvectors into features array at the following indices:
-      // 1) Document (i)
-      // 2) All vector elements which is equal to NDArrayIndex.interval(0, vectorSize)
-      // 3) All elements between 0 and the length of the current sequence
-      features.put(
-              new INDArrayIndex[]{
-                      NDArrayIndex.point(i), NDArrayIndex.all(), NDArrayIndex.interval(0, seqLength)
-              },
-              vectors);
+      int seqLength = Math.min(tokens.length, maxLength);
 
       // Assign "1" to each position where a feature is present, that is, in the interval of [0, seqLength)
       featuresMask.get(new INDArrayIndex[]{NDArrayIndex.point(i), NDArrayIndex.interval(0, seqLength)}).assign(1);
 
       int idx = (positive[i] ? 0 : 1);
-      int lastIdx = Math.min(tokens.size(), maxLength);
+      int lastIdx = Math.min(tokens.length, maxLength);
       labels.putScalar(new int[]{i, idx, lastIdx - 1}, 1.0);   //Set label: [0,1] for negative, [1,0] for positive
       labelsMask.putScalar(new int[]{i, lastIdx - 1}, 1.0);   //Specify that an output exists at the final time step for this example
     }
+    stopTimer(PipelineMetrics.Stage.FILL, fillStart);
 
+    stopTimer(PipelineMetrics.Stage.BATCH, batchStart);
     return new DataSet(features, labels, featuresMask, labelsMask);
   }
 
+  private void stopTimer(PipelineMetrics.Stage stage, long startNanos) {
+    stopTimer(stage, startNanos, System.nanoTime());
+  }
+
+  private void stopTimer(PipelineMetrics.Stage stage, long startNanos, long endNanos) {
+    if (recordMetrics) {
+      PipelineMetrics.add(stage, endNanos - startNanos);
+    }
+  }
+
 
   public int totalExamples() {
     return positiveFiles.length + negativeFiles.length;
@@ -204,6 +243,19 @@ public class SentimentExampleIterator implements DataSetIterator {
     return totalExamples();
   }
 
+  /**
+   * Record the minibatches of this iterator in {@link PipelineMetrics}: turn on for the iterator the network trains
+   * on only. Off by default.
+   */
+  public void setRecordMetrics(boolean recordMetrics) {
+    this.recordMetrics = recordMetrics;
+  }
+
+  @Override
+  public boolean isRecordMetrics() {
+    return recordMetrics;
+  }
+
   @Override
   public void setPreProcessor(DataSetPreProcessor preProcessor) {
     throw new UnsupportedOperationException();
@@ -248,6 +300,14 @@ public class SentimentExampleIterator implements DataSetIterator {
     return FileUtils.readFileToString(f);
   }
 
+  /**
+   * Even positions hold positive reviews, odd positions negative reviews
+   */
+  @Override
+  public boolean isPositiveAt(int position) {
+    return position % 2 == 0;
+  }
+
   /**
    * Convenience method to get label for review
    */
@@ -277,22 +337,6 @@ public class SentimentExampleIterator implements DataSetIterator {
    */
   public INDArray loadFeaturesFromString(String reviewContents, int maxLength) {
     List<String> tokens = tokenizerFactory.create(reviewContents).getTokens();
-    List<String> tokensFiltered = new ArrayList<>();
-    for (String t : tokens) {
-      if (wordVectors.hasWord(t)){
-        tokensFiltered.add(t);
-      }
-    }
-    int outputLength = Math.max(maxLength, tokensFiltered.size());
-
-    INDArray features = Nd4j.create(1, vectorSize, outputLength);
-
-    for (int j = 0; j < tokens.size() && j < maxLength; j++) {
-      String token = tokens.get(j);
-      INDArray vector = wordVectors.getWordVectorMatrix(token);
-      features.put(new INDArrayIndex[]{NDArrayIndex.point(0), NDArrayIndex.all(), NDArrayIndex.point(j)}, vector);
-    }
-
-    return features;
+    return embeddings.gather(Collections.singletonList(embeddings.lookup(tokens, maxLength)), maxLength);
   }
 }
@@ -18,11 +18,17 @@ import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.INDArrayIndex;
 import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.nio.charset.Charset;
 import java.util.*;
 
@@ -36,8 +42,9 @@ import java.util.*;
  *
  * @author Alex Black
  */
-public class SentimentIterator implements DataSetIterator {
-  private final WordVectors wordVectors;
+public class SentimentIterator implements DataSetIterator, BatchSource {
+  private static Logger log = LoggerFactory.getLogger(SentimentIterator.class);
+
   private final int batchSize;
   private final int vectorSize;
   private final int truncateLength;
@@ -45,7 +52,16 @@ public class SentimentIterator implements DataSetIterator {
   private int cursor = 0;
   private  String[] positiveFiles;
   private  String[] negativeFiles;
+  private ReviewIndex reviewIndex;
   private final TokenizerFactory tokenizerFactory;
+  private final EmbeddingTable embeddings;
+  private CorpusCache cache;
+  private int[][] buckets;
+  private int[] epochOrder;
+  private Random bucketRng;
+  private boolean indexFeatures = false;
+  private volatile boolean recordMetrics = false;
+  private long loadNanos = 0;
 
   /**
    * @param dataDirectory  the directory of the IMDB review data set
@@ -55,29 +71,88 @@ public class SentimentIterator implements DataSetIterator {
    * @param train          If true: return the training data. If false: return the testing data.
    */
   public SentimentIterator(String dataDirectory, WordVectors wordVectors, int batchSize, int truncateLength, boolean train) throws IOException {
+    this(dataDirectory, wordVectors, null, batchSize, truncateLength, train);
+  }
+
+  /**
+   * Featurizer without any data: for vectorizing reviews that arrive one by one, see {@link #tokenIds(String)} and
+   * {@link #loadFeaturesFromTokenIds(List, int)}. Iterating over it yields no examples.
+   */
+  public SentimentIterator(WordVectors wordVectors, int batchSize, int truncateLength) {
+    this(EmbeddingTable.of(wordVectors), batchSize, truncateLength);
+  }
+
+  /**
+   * Featurizer over an embedding table, e.g. a quantized one from {@link EmbeddingTable#load(File, boolean)}
+   */
+  public SentimentIterator(EmbeddingTable embeddings, int batchSize, int truncateLength) {
     this.batchSize = batchSize;
-    this.vectorSize = wordVectors.getWordVector(wordVectors.vocab().wordAtIndex(0)).length;
+    this.vectorSize = embeddings.vectorSize();
+    this.positiveFiles = new String[0];
+    this.negativeFiles = new String[0];
+    this.truncateLength = truncateLength;
+    this.embeddings = embeddings;
+
+    tokenizerFactory = new DefaultTokenizerFactory();
+    tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+  }
+
+  /**
+   * Same as above, but reviews are tokenized only once: the filtered token ids are stored in a {@link CorpusCache}
+   * next to the CSV file (dataDirectory + ".tokcache.<key>") and memory-mapped on every later epoch and run.
+   * The cache is rebuilt automatically when the CSV, the word-vector file or truncateLength changes.
+   *
+   * @param wordVectorsPath File the wordVectors were loaded from, used to key the cache. If null: no cache is used
+   */
+  public SentimentIterator(String dataDirectory, WordVectors wordVectors, String wordVectorsPath, int batchSize, int truncateLength, boolean train) throws IOException {
+    this(dataDirectory, wordVectors, wordVectorsPath, batchSize, truncateLength, train, false);
+  }
+
+  /**
+   * Same as above, optionally in streaming mode for corpora larger than the heap: instead of keeping every review as
+   * a String, only a {@link ReviewIndex} of byte offsets into the memory-mapped CSV is kept, and the reviews of each
+   * minibatch are decoded when the minibatch is built. The CSV must be UTF-8 encoded in this mode.
+   *
+   * @param streaming If true: index the CSV instead of loading it
+   */
+  public SentimentIterator(String dataDirectory, WordVectors wordVectors, String wordVectorsPath, int batchSize, int truncateLength, boolean train, boolean streaming) throws IOException {
+    this(dataDirectory, EmbeddingTable.of(wordVectors), wordVectorsPath, batchSize, truncateLength, train, streaming);
+  }
+
+  /**
+   * Same as above over an embedding table, e.g. a quantized one from {@link EmbeddingTable#load(File, boolean)}.
+   * Vocabulary indices are those of the model in wordVectorsPath either way, so the token cache is shared.
+   */
+  public SentimentIterator(String dataDirectory, EmbeddingTable embeddings, String wordVectorsPath, int batchSize, int truncateLength, boolean train, boolean streaming) throws IOException {
+    this.batchSize = batchSize;
+    this.vectorSize = embeddings.vectorSize();
     File file = new File(dataDirectory);
-    Scanner sc = new Scanner(file);
     List<String> posList = new ArrayList<>();
     List<String> negList = new ArrayList<>();
 
-    while (sc.hasNextLine()){
-      String dataLine = sc.nextLine();
-      if(dataLine!=null){
-        String[] datas = dataLine.split(",");
-        if(3==datas.length){
-          if(datas[1].isEmpty()){
-            System.out.println(datas[0]+":"+datas[1]+":"+datas[2]);
-          }
-          if("Positive".equals(datas[2])){
-            posList.add(datas[1]);
-          }
-          else if("Negative".equals(datas[2])){
-            negList.add(datas[1]);
+    if (streaming) {
+      reviewIndex = new ReviewIndex(file);
+    } else {
+      long readStart = PipelineMetrics.start();
+      Scanner sc = new Scanner(file);
+      while (sc.hasNextLine()){
+        String dataLine = sc.nextLine();
+        if(dataLine!=null){
+          String[] datas = dataLine.split(",");
+          if(3==datas.length){
+            if(datas[1].isEmpty()){
+              System.out.println(datas[0]+":"+datas[1]+":"+datas[2]);
+            }
+            if("Positive".equals(datas[2])){
+              posList.add(datas[1]);
+            }
+            else if("Negative".equals(datas[2])){
+              negList.add(datas[1]);
+            }
           }
         }
       }
+      loadNanos = System.nanoTime() - readStart;
     }
 
     positiveFiles =  new String[posList.size()];
@@ -85,81 +160,108 @@ public class SentimentIterator implements DataSetIterator {
     negativeFiles =  new String[negList.size()];
     negList.toArray(negativeFiles);
 
-    this.wordVectors = wordVectors;
     this.truncateLength = truncateLength;
+    this.embeddings = embeddings;
 
     tokenizerFactory = new DefaultTokenizerFactory();
     tokenizerFactory.setTokenPreProcessor(new CommonPreprocessor());
+
+    if (wordVectorsPath != null) {
+      File cacheFile = new File(dataDirectory + ".tokcache");
+      String key = CorpusCache.key(file, new File(wordVectorsPath), truncateLength);
+      cache = CorpusCache.open(cacheFile, key);
+      if (cache == null) {
+        log.info("Building token cache {}", CorpusCache.file(cacheFile, key));
+        cache = CorpusCache.build(cacheFile, key, numPositive(), numNegative(), new CorpusCache.Source() {
+          @Override
+          public int[] tokenIds(boolean positive, int reviewNumber) {
+            return SentimentIterator.this.tokenIds(reviewAt(positive, reviewNumber));
+          }
+        });
+      }
+    }
+  }
+
+  private int numPositive() {
+    return reviewIndex != null ? reviewIndex.numPositive() : positiveFiles.length;
+  }
+
+  private int numNegative() {
+    return reviewIndex != null ? reviewIndex.numNegative() : negativeFiles.length;
+  }
+
+  private String reviewAt(boolean positive, int reviewNumber) {
+    if (reviewIndex != null) {
+      long readStart = PipelineMetrics.start();
+      String review = reviewIndex.review(positive, reviewNumber);
+      stopTimer(PipelineMetrics.Stage.READ, readStart);
+      return review;
+    }
+    return positive ? positiveFiles[reviewNumber] : negativeFiles[reviewNumber];
   }
 
 
   @Override
   public DataSet next(int num) {
-    if (cursor >= positiveFiles.length + negativeFiles.length) {
+    if (cursor >= totalExamples()) {
       throw new NoSuchElementException();
     }
     try {
-      return nextDataSet(num);
+      DataSet dataSet = nextDataSet(num);
+      if (recordMetrics) {
+        PipelineMetrics.batchDelivered(dataSet);
+      }
+      return dataSet;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
   private DataSet nextDataSet(int num) throws IOException {
+    DataSet dataSet = batchAt(cursor, num);
+    cursor = Math.min(cursor + num, totalExamples());
+    return dataSet;
+  }
+
+  /**
+   * Build the minibatch of (at most) num examples starting at example index start.
+   * Does not move the cursor and only reads shared state, so several batches can be built concurrently.
+   */
+  @Override
+  public DataSet batchAt(int start, int num) throws IOException {
+    int[] positions = new int[Math.max(0, Math.min(num, totalExamples() - start))];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = epochOrder == null ? start + i : epochOrder[start + i];
+    }
+    return batchOf(positions);
+  }
+
+  @Override
+  public DataSet batchOf(int[] positions) throws IOException {
+    long batchStart = PipelineMetrics.start();
+    int num = positions.length;
     //First: load reviews to String. Alternate positive and negative reviews
     List<String> reviews = new ArrayList<>(num);
     boolean[] positive = new boolean[num];
-    for (int i = 0; i < num && cursor < totalExamples(); i++) {
-      if (cursor % 2 == 0) {
-        //Load positive review
-        int posReviewNumber = cursor / 2;
-        if(posReviewNumber<positiveFiles.length){
-          String review = positiveFiles[posReviewNumber];
-          reviews.add(review);
-          positive[i] = true;
-        }
-        else{
-          //Load negative review
-          int negReviewNumber = cursor / 2;
-          String review = negativeFiles[negReviewNumber];
-          reviews.add(review);
-          positive[i] = false;
-        }
-      } else {
-        //Load negative review
-        int negReviewNumber = cursor / 2;
-        if(negReviewNumber<negativeFiles.length){
-          String review = negativeFiles[negReviewNumber];
-          reviews.add(review);
-          positive[i] = false;
-        }
-        else{
-          //Load positive review
-          int posReviewNumber = cursor / 2;
-          String review = positiveFiles[posReviewNumber];
-          reviews.add(review);
-          positive[i] = true;
-        }
-      }
-      cursor++;
+    int[] reviewNumbers = new int[num];
+    for (int i = 0; i < num; i++) {
+      int position = positions[i];
+      positive[i] = isPositiveAt(position);
+      reviewNumbers[i] = position / 2;
+      reviews.add(reviewAt(positive[i], reviewNumbers[i]));
     }
 
-    //Second: tokenize reviews and filter out unknown words
-    List<List<String>> allTokens = new ArrayList<>(reviews.size());
+    //Second: tokenize reviews and map the known words to their vocabulary index
+    List<int[]> allTokens = new ArrayList<>(reviews.size());
     int maxLength = 0;
-    for (String s : reviews) {
-      List<String> tokens = tokenizerFactory.create(s).getTokens();
-      List<String> tokensFiltered = new ArrayList<>();
-      for (String t : tokens) {
-        if (wordVectors.hasWord(t)){
-          tokensFiltered.add(t);
-        }
-      }
-      if(tokensFiltered.size()==0){
+    for (int i = 0; i < reviews.size(); i++) {
+      String s = reviews.get(i);
+      int[] tokensFiltered = tokenIdsAt(positive[i], reviewNumbers[i]);
+      if(tokensFiltered.length==0){
         System.out.println("s=0:"+s);
       }
       allTokens.add(tokensFiltered);
-      maxLength = Math.max(maxLength, tokensFiltered.size());
+      maxLength = Math.max(maxLength, tokensFiltered.length);
     }
 
     //If longest review exceeds 'truncateLength': only take the first 'truncateLength' words
@@ -169,7 +271,11 @@ public class SentimentIterator implements DataSetIterator {
 
     //Create data for training
     //Here: we have reviews.size() examples of varying lengths
-    INDArray features = Nd4j.create(new int[]{reviews.size(), vectorSize, maxLength}, 'f');
+    //All word vectors of the minibatch are gathered into the features array in one pass
+    long gatherStart = PipelineMetrics.start();
+    INDArray features = indexFeatures ? embeddings.gatherIndices(allTokens, maxLength) : embeddings.gather(allTokens, maxLength);
+    stopTimer(PipelineMetrics.Stage.GATHER, gatherStart);
+    long fillStart = PipelineMetrics.start();
     INDArray labels = Nd4j.create(new int[]{reviews.size(), 2, maxLength}, 'f');    //Two labels: positive or negative
     //Because we are dealing with reviews of different lengths and only one output at the final time step: use padding arrays
     //Mask arrays contain 1 if data is present at that time step for that example, or 0 if data is just padding
@@ -177,47 +283,141 @@ public class SentimentIterator implements DataSetIterator {
     INDArray labelsMask = Nd4j.zeros(reviews.size(), maxLength);
 
     for (int i = 0; i < reviews.size(); i++) {
-      List<String> tokens = allTokens.get(i);
-      if(tokens.size()==0){
-        System.out.println(this.cursor+":"+i);
+      int[] tokens = allTokens.get(i);
+      if(tokens.length==0){
+        System.out.println(positions[i]+":"+i);
         //tokens.add("null");
       }
       // Get the truncated sequence length of document (i)
-      int seqLength = Math.min(tokens.size(), maxLength);
-
-      // Get all wordvectors for the current document and transpose them to fit the 2nd and 3rd feature shape
-      final INDArray vectors = wordVectors.getWordVectors(tokens.subList(0, seqLength)).transpose();
-
-      // Put wordvectors into features array at the following indices:
-      // 1) Document (i)
-      // 2) All vector elements which is equal to NDArrayIndex.interval(0, vectorSize)
-      // 3) All elements between 0 and the length of the current sequence
-      features.put(
-              new INDArrayIndex[]{
-                      NDArrayIndex.point(i), NDArrayIndex.all(), NDArrayIndex.interval(0, seqLength)
-              },
-              vectors);
+      int seqLength = Math.min(tokens.length, maxLength);
 
       // Assign "1" to each position where a feature is present, that is, in the interval of [0, seqLength)
       featuresMask.get(new INDArrayIndex[]{NDArrayIndex.point(i), NDArrayIndex.interval(0, seqLength)}).assign(1);
 
       int idx = (positive[i] ? 0 : 1);
-      int lastIdx = Math.min(tokens.size(), maxLength);
+      int lastIdx = Math.min(tokens.length, maxLength);
       labels.putScalar(new int[]{i, idx, lastIdx - 1}, 1.0);   //Set label: [0,1] for negative, [1,0] for positive
       labelsMask.putScalar(new int[]{i, lastIdx - 1}, 1.0);   //Specify that an output exists at the final time step for this example
     }
+    stopTimer(PipelineMetrics.Stage.FILL, fillStart);
 
+    stopTimer(PipelineMetrics.Stage.BATCH, batchStart);
     return new DataSet(features, labels, featuresMask, labelsMask);
   }
 
 
+  /**
+   * Class of the example at the given position. Even positions hold positive reviews and odd positions negative
+   * reviews, until one class runs out; the example at position p is review number p / 2 of its class.
+   */
+  @Override
+  public boolean isPositiveAt(int position) {
+    if (position % 2 == 0) {
+      return position / 2 < numPositive();
+    }
+    return position / 2 >= numNegative();
+  }
+
+  private int[] tokenIdsAt(boolean positive, int reviewNumber) {
+    if (cache != null) {
+      return cache.tokenIds(positive, reviewNumber);
+    }
+    return tokenIds(reviewAt(positive, reviewNumber));
+  }
+
+  /**
+   * Switch to length-bucketed minibatches: examples are sorted by their (truncated) number of known words and cut into
+   * minibatches of batchSize, so each minibatch holds reviews of similar length and carries little padding.
+   * The order of these minibatches is shuffled again on every {@link #reset()}.
+   * Needs the length of every review up front: cheap with the token cache, otherwise every review is tokenized once here.
+   *
+   * @param seed Seed for the per-epoch shuffle of the minibatch order
+   */
+  public void enableLengthBucketing(long seed) {
+    int total = totalExamples();
+    final int[] lengths = new int[total];
+    Integer[] sorted = new Integer[total];
+    for (int position = 0; position < total; position++) {
+      lengths[position] = Math.min(tokenIdsAt(isPositiveAt(position), position / 2).length, truncateLength);
+      sorted[position] = position;
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(lengths[a], lengths[b]);
+      }
+    });
+
+    int numBatches = (total + batchSize - 1) / batchSize;
+    buckets = new int[numBatches][];
+    int[] natural = new int[total];
+    for (int b = 0; b < numBatches; b++) {
+      buckets[b] = new int[Math.min(batchSize, total - b * batchSize)];
+      for (int k = 0; k < buckets[b].length; k++) {
+        buckets[b][k] = sorted[b * batchSize + k];
+        natural[b * batchSize + k] = b * batchSize + k;
+      }
+    }
+    log.info("Padding ratio: {} sequential, {} length-bucketed", String.format("%.3f", paddingRatio(natural, lengths)),
+            String.format("%.3f", paddingRatio(flatten(buckets), lengths)));
+
+    bucketRng = new Random(seed);
+    shuffleBuckets();
+  }
+
+  private void shuffleBuckets() {
+    List<int[]> order = new ArrayList<>(Arrays.asList(buckets));
+    Collections.shuffle(order, bucketRng);
+    epochOrder = flatten(order.toArray(new int[order.size()][]));
+  }
+
+  private static int[] flatten(int[][] batches) {
+    int total = 0;
+    for (int[] batch : batches) {
+      total += batch.length;
+    }
+    int[] flat = new int[total];
+    int n = 0;
+    for (int[] batch : batches) {
+      System.arraycopy(batch, 0, flat, n, batch.length);
+      n += batch.length;
+    }
+    return flat;
+  }
+
+  /**
+   * Fraction of the time steps of all minibatches that are padding, when examples are batched in the given order
+   */
+  private double paddingRatio(int[] order, int[] lengths) {
+    long used = 0;
+    long allocated = 0;
+    for (int from = 0; from < order.length; from += batchSize) {
+      int to = Math.min(from + batchSize, order.length);
+      int maxLength = 0;
+      for (int k = from; k < to; k++) {
+        used += lengths[order[k]];
+        maxLength = Math.max(maxLength, lengths[order[k]]);
+      }
+      allocated += (long) maxLength * (to - from);
+    }
+    return allocated == 0 ? 0 : 1.0 - (double) used / allocated;
+  }
+
   public int totalExamples() {
-    return positiveFiles.length + negativeFiles.length;
+    return numPositive() + numNegative();
   }
 
   @Override
   public int inputColumns() {
-    return vectorSize;
+    return indexFeatures ? 1 : vectorSize;
+  }
+
+  /**
+   * Emit vocabulary indices [batch, 1, T] instead of word vectors [batch, vectorSize, T], for networks that start
+   * with an embedding layer (see {@link IndexEmbeddingModel}). Masks and labels are unchanged.
+   */
+  public void setIndexFeatures(boolean indexFeatures) {
+    this.indexFeatures = indexFeatures;
   }
 
   @Override
@@ -228,6 +428,9 @@ public class SentimentIterator implements DataSetIterator {
   @Override
   public void reset() {
     cursor = 0;
+    if (buckets != null) {
+      shuffleBuckets();
+    }
   }
   @Override
   public boolean resetSupported() {
@@ -236,7 +439,9 @@ public class SentimentIterator implements DataSetIterator {
 
   @Override
   public boolean asyncSupported() {
-    return true;
+    //Otherwise fit() reads ahead on a thread of its own, so the cursor would be ahead of the fitted minibatches that
+    //checkpoints record; ParallelPrefetchIterator builds minibatches ahead instead
+    return false;
   }
 
   @Override
@@ -254,6 +459,23 @@ public class SentimentIterator implements DataSetIterator {
     return totalExamples();
   }
 
+  /**
+   * Record the minibatches of this iterator in {@link PipelineMetrics}: turn on for the iterator the network trains
+   * on only. Off by default. Turning it on also records the time the reviews took to load.
+   */
+  public void setRecordMetrics(boolean recordMetrics) {
+    if (recordMetrics && !this.recordMetrics) {
+      PipelineMetrics.add(PipelineMetrics.Stage.READ, loadNanos);
+      loadNanos = 0;
+    }
+    this.recordMetrics = recordMetrics;
+  }
+
+  @Override
+  public boolean isRecordMetrics() {
+    return recordMetrics;
+  }
+
   @Override
   public void setPreProcessor(DataSetPreProcessor preProcessor) {
     throw new UnsupportedOperationException();
@@ -290,10 +512,10 @@ public class SentimentIterator implements DataSetIterator {
   public String loadReviewToString(int index) throws IOException {
     String str;
     if (index % 2 == 0){
-      str = positiveFiles[index / 2];
+      str = reviewAt(true, index / 2);
     }
     else{
-      str = negativeFiles[index / 2];
+      str = reviewAt(false, index / 2);
     }
     return str;
   }
@@ -310,22 +532,66 @@ public class SentimentIterator implements DataSetIterator {
     return loadFeaturesFromString(review, maxLength);
   }
 
+  /**
+   * Features [1, vectorSize, maxLength] of one review: the vectors of its known words, in order, zero padded
+   */
   public INDArray loadFeaturesFromString(String reviewContents, int maxLength) {
     List<String> tokens = tokenizerFactory.create(reviewContents).getTokens();
-    List<String> tokensFiltered = new ArrayList<>();
-    for (String t : tokens) {
-      if (wordVectors.hasWord(t)){
-        tokensFiltered.add(t);
-      }
+    return embeddings.gather(Collections.singletonList(embeddings.lookup(tokens, maxLength)), maxLength);
+  }
+
+  /**
+   * Tokenize a review and map every token that has a word vector to its vocabulary index
+   *
+   * @param reviewContents Contents of the review
+   * @return Vocabulary indices of the known tokens, in order, at most truncateLength of them
+   */
+  public int[] tokenIds(String reviewContents) {
+    long tokenizeStart = PipelineMetrics.start();
+    List<String> tokens = tokenizerFactory.create(reviewContents).getTokens();
+    long lookupStart = PipelineMetrics.start();
+    stopTimer(PipelineMetrics.Stage.TOKENIZE, tokenizeStart, lookupStart);
+    int[] ids = embeddings.lookup(tokens, truncateLength);
+    stopTimer(PipelineMetrics.Stage.OOV_FILTER, lookupStart);
+    return ids;
+  }
+
+  private void stopTimer(PipelineMetrics.Stage stage, long startNanos) {
+    stopTimer(stage, startNanos, System.nanoTime());
+  }
+
+  private void stopTimer(PipelineMetrics.Stage stage, long startNanos, long endNanos) {
+    if (recordMetrics) {
+      PipelineMetrics.add(stage, endNanos - startNanos);
+    }
+  }
+
+  /**
+   * Used post training to vectorize several already filtered reviews into one masked minibatch.
+   * The time dimension is the longest review (capped at maxLength). A review without any known word gets a single
+   * all-zero step, so that every example still has an output at its last unmasked step.
+   *
+   * @param allTokens Token ids of each review, see {@link #tokenIds(String)}
+   * @param maxLength Maximum length (if a review is longer than this: truncate to maxLength)
+   * @return DataSet holding features [n, vectorSize, T] (or [n, 1, T] with index features) and featuresMask [n, T]; labels are null
+   */
+  public DataSet loadFeaturesFromTokenIds(List<int[]> allTokens, int maxLength) {
+    int timeSteps = 1;
+    for (int[] tokens : allTokens) {
+      timeSteps = Math.max(timeSteps, Math.min(tokens.length, maxLength));
     }
-    int outputLength = Math.max(maxLength, tokensFiltered.size());
-    INDArray features = Nd4j.create(1, vectorSize, outputLength);
-    for (int j = 0; j < tokens.size() && j < maxLength; j++) {
-      String token = tokens.get(j);
-      INDArray vector = wordVectors.getWordVectorMatrix(token);
-      features.put(new INDArrayIndex[]{NDArrayIndex.point(0), NDArrayIndex.all(), NDArrayIndex.point(j)}, vector);
+
+    INDArray features = indexFeatures ? embeddings.gatherIndices(allTokens, timeSteps) : embeddings.gather(allTokens, timeSteps);
+    INDArray featuresMask = Nd4j.zeros(allTokens.size(), timeSteps);
+    for (int i = 0; i < allTokens.size(); i++) {
+      int seqLength = Math.max(Math.min(allTokens.get(i).length, timeSteps), 1);
+      featuresMask.get(new INDArrayIndex[]{NDArrayIndex.point(i), NDArrayIndex.interval(0, seqLength)}).assign(1);
     }
-    return features;
+    return new DataSet(features, null, featuresMask, null);
+  }
+
+  public int getTruncateLength() {
+    return truncateLength;
   }
 
   public int getCursor() {
@@ -335,4 +601,38 @@ public class SentimentIterator implements DataSetIterator {
   public void setCursor(int cursor) {
     this.cursor = cursor;
   }
+
+  /**
+   * Example order of the current epoch and state of the shuffle RNG, so that a run resumed from a checkpoint sees the
+   * same minibatches in this and all later epochs. Null without length bucketing, where the order never changes.
+   */
+  public byte[] orderState() throws IOException {
+    if (buckets == null) {
+      return null;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(epochOrder);
+      out.writeObject(bucketRng);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Restore a state returned by {@link #orderState()}. Call after {@link #enableLengthBucketing(long)}.
+   */
+  public void restoreOrderState(byte[] state) throws IOException {
+    if (state == null) {
+      return;
+    }
+    if (buckets == null) {
+      throw new IllegalStateException("Order state saved with length bucketing, which is not enabled");
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+      epochOrder = (int[]) in.readObject();
+      bucketRng = (Random) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
 }
@@ -0,0 +1,201 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.deeplearning4j.utilities.Params;
+import org.nd4j.shade.jackson.databind.JsonNode;
+import org.nd4j.shade.jackson.databind.ObjectMapper;
+import org.nd4j.shade.jackson.databind.node.ArrayNode;
+import org.nd4j.shade.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Local HTTP service that scores reviews with the model saved at Params.MODAL_PATH.<br>
+ * Concurrent requests are grouped by a {@link MicroBatcher} so that many small requests share one forward pass.
+ * The server is bound to the loopback address only.
+ * <p>
+ * POST /score with {"review":"..."} returns {"positive":p}; with {"reviews":["...", ...]} returns {"positive":[p, ...]}.
+ * <br>
+ * GET /metrics returns p50/p99 latency in milliseconds, requests per second and the mean micro-batch size.
+ */
+public class SentimentServer {
+  private static Logger log = LoggerFactory.getLogger(SentimentServer.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final MicroBatcher batcher;
+  private final LatencyStats stats = new LatencyStats(10000, 10);
+  private final HttpServer server;
+  private final ExecutorService handlers;
+  private final long requestTimeoutMillis;
+
+  /**
+   * @param requestTimeoutMillis Time a request waits for its scores before it is answered with 503
+   * @param maxQueued            Maximum number of reviews waiting to be scored; requests beyond it get 503
+   */
+  public SentimentServer(MultiLayerNetwork net, EmbeddingTable embeddings, int port, int maxBatch, int maxWaitMillis,
+                         int truncateReviewsToLength, long requestTimeoutMillis, int maxQueued) throws IOException {
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    SentimentIterator featurizer = new SentimentIterator(embeddings, maxBatch, truncateReviewsToLength);
+    featurizer.setIndexFeatures(IndexEmbeddingModel.isIndexModel(net));
+    this.batcher = new MicroBatcher(net, featurizer, maxBatch, maxWaitMillis, truncateReviewsToLength, maxQueued);
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    //Enough handler threads to fill a micro-batch; they block on the batcher while it scores
+    this.handlers = Executors.newFixedThreadPool(Math.max(maxBatch, Runtime.getRuntime().availableProcessors()));
+    server.setExecutor(handlers);
+    server.createContext("/score", new ScoreHandler());
+    server.createContext("/metrics", new MetricsHandler());
+  }
+
+  public static void main(String[] args) throws Exception {
+    MultiLayerNetwork net = ModelSerializer.restoreMultiLayerNetwork(new File(Params.MODAL_PATH));
+    EmbeddingTable embeddings = EmbeddingTable.load(new File(Params.WORD_VECTORS_PATH));
+    if (IndexEmbeddingModel.isIndexModel(net)) {
+      IndexEmbeddingModel.checkVocabulary(new File(Params.MODAL_PATH), embeddings);
+    }
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : Params.serverPort;
+    SentimentServer server = new SentimentServer(net, embeddings, port, Params.serverMaxBatch,
+            Params.serverMaxWaitMillis, Params.truncateReviewsToLength, Params.serverRequestTimeoutMillis,
+            Params.serverMaxQueued);
+    server.start();
+  }
+
+  public void start() {
+    server.start();
+    log.info("Scoring service listening on http://{}:{}/score", server.getAddress().getHostString(), server.getAddress().getPort());
+  }
+
+  public void stop() {
+    server.stop(0);
+    handlers.shutdownNow();
+    batcher.shutdown();
+  }
+
+  private class ScoreHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        send(exchange, 405, error("Use POST"));
+        return;
+      }
+      JsonNode request;
+      try (InputStream in = exchange.getRequestBody()) {
+        request = mapper.readTree(in);
+      } catch (IOException e) {
+        send(exchange, 400, error("Malformed JSON: " + e.getMessage()));
+        return;
+      }
+      ObjectNode response = mapper.createObjectNode();
+      long deadline = System.currentTimeMillis() + requestTimeoutMillis;
+      List<CompletableFuture<Double>> results = new ArrayList<>();
+      try {
+        if (request != null && request.has("review")) {
+          CompletableFuture<Double> result = batcher.submit(request.get("review").asText(), requestTimeoutMillis);
+          results.add(result);
+          response.put("positive", result.get(requestTimeoutMillis, TimeUnit.MILLISECONDS));
+        } else if (request != null && request.has("reviews") && request.get("reviews").isArray()) {
+          //Submit them all before waiting, so they can end up in the same micro-batch
+          for (JsonNode review : request.get("reviews")) {
+            results.add(batcher.submit(review.asText(), Math.max(0, deadline - System.currentTimeMillis())));
+          }
+          ArrayNode positive = response.putArray("positive");
+          for (CompletableFuture<Double> result : results) {
+            positive.add(result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+          }
+        } else {
+          send(exchange, 400, error("Expected {\"review\":\"...\"} or {\"reviews\":[...]}"));
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel(results);
+        send(exchange, 503, error("Interrupted"));
+        return;
+      } catch (TimeoutException e) {
+        log.warn("No score within {} ms", requestTimeoutMillis);
+        cancel(results);
+        send(exchange, 503, error("Scoring timed out after " + requestTimeoutMillis + " ms"));
+        return;
+      } catch (ExecutionException e) {
+        cancel(results);
+        if (e.getCause() instanceof TimeoutException) {
+          //Dropped by the batcher after waiting in its queue until the deadline
+          send(exchange, 503, error("Scoring timed out after " + requestTimeoutMillis + " ms"));
+        } else {
+          log.error("Scoring failed", e.getCause());
+          send(exchange, 500, error("Scoring failed: " + e.getCause().getMessage()));
+        }
+        return;
+      } catch (RejectedExecutionException e) {
+        log.warn("Scoring queue full: {}", e.getMessage());
+        cancel(results);
+        send(exchange, 503, error("Too many reviews waiting to be scored"));
+        return;
+      } catch (Exception e) {
+        log.error("Scoring failed", e);
+        send(exchange, 500, error("Scoring failed: " + e.getMessage()));
+        return;
+      }
+      send(exchange, 200, response);
+      stats.record(start, System.nanoTime());
+    }
+  }
+
+  private class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      ObjectNode metrics = mapper.createObjectNode();
+      metrics.put("requests", stats.total());
+      metrics.put("p50Millis", stats.percentileMillis(50));
+      metrics.put("p99Millis", stats.percentileMillis(99));
+      metrics.put("requestsPerSecond", stats.requestsPerSecond());
+      metrics.put("meanBatchSize", batcher.meanBatchSize());
+      send(exchange, 200, metrics);
+    }
+  }
+
+  /**
+   * Cancel the reviews of a request that will not be answered, so the batcher does not score them
+   */
+  private static void cancel(List<CompletableFuture<Double>> results) {
+    for (CompletableFuture<Double> result : results) {
+      result.cancel(false);
+    }
+  }
+
+  private static ObjectNode error(String message) {
+    ObjectNode node = mapper.createObjectNode();
+    node.put("error", message);
+    return node;
+  }
+
+  private static void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+    byte[] bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.embeddings.learning.impl.elements.SkipGram;
+import org.deeplearning4j.models.embeddings.loader.VectorsConfiguration;
+import org.deeplearning4j.models.sequencevectors.sequence.Sequence;
+import org.deeplearning4j.models.word2vec.Huffman;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Word2Vec (skip-gram, hierarchical softmax) trained from a {@link TokenizedCorpus} with the corpus sharded across
+ * worker threads.<br>
+ * The vocabulary and Huffman tree are built from the word counts stored in the corpus file, so the text is never read
+ * again. Each worker owns a contiguous range of sentences holding about the same number of tokens and feeds them to
+ * DL4J's SkipGram learning algorithm, which updates the shared weights without locking (Hogwild, as in Word2Vec.fit).
+ * The learning rate decays linearly with the number of words processed by all workers together.<br>
+ * The result is a regular Word2Vec model that WordVectorSerializer can write. {@link #update} continues training such a
+ * model (or one written by Word2Vec.fit) on new sentences only.
+ */
+public class ShardedWord2Vec {
+  private static Logger log = LoggerFactory.getLogger(ShardedWord2Vec.class);
+
+  /**
+   * @param corpus           Pre-tokenized corpus
+   * @param layerSize        Size of the word vectors
+   * @param windowSize       Skip-gram window size
+   * @param minWordFrequency Words occurring less often are left out of the vocabulary
+   * @param iterations       Number of times every sentence is learned, as in Word2Vec.Builder.iterations
+   * @param seed             Seed for the weight initialization and the window sampling
+   * @param numThreads       Number of worker threads, one shard each
+   */
+  public static Word2Vec fit(TokenizedCorpus corpus, int layerSize, int windowSize, int minWordFrequency, int iterations,
+                             long seed, int numThreads) throws Exception {
+    String[] words = corpus.words();
+    long[] counts = corpus.counts();
+    AbstractCache<VocabWord> vocab = new AbstractCache.Builder<VocabWord>().build();
+    for (int id = 0; id < words.length; id++) {
+      if (counts[id] >= minWordFrequency) {
+        vocab.addToken(new VocabWord(counts[id], words[id]));
+      }
+    }
+    buildTree(vocab);
+    InMemoryLookupTable<VocabWord> lookupTable = buildLookupTable(vocab, layerSize, seed);
+    Word2Vec vec = buildModel(vocab, lookupTable, layerSize, windowSize, minWordFrequency, iterations, seed);
+    train(vec, corpus, iterations, seed, numThreads);
+    return vec;
+  }
+
+  /**
+   * Continue training a previous model on new sentences only.<br>
+   * Words of the corpus that the previous model does not know are added to the vocabulary if their count reaches
+   * minWordFrequency; words of the previous model are all kept, and their frequencies become the previous frequency
+   * plus the count in the corpus. Known words keep their vocabulary index, vector, Huffman code and the inner-node
+   * weights on their path, so their place in the output tree does not move. New words get a Huffman tree of their own
+   * over the inner nodes after the previous ones, and random vectors like in a fresh model. Training starts at
+   * learningRate, well below the rate of a fresh model, so the delta refines the known vectors instead of pulling them
+   * away from the rest of the vocabulary.
+   *
+   * @param previous     Model read with WordVectorSerializer.readWord2VecModel(file, true), trained with hierarchical
+   *                     softmax
+   * @param corpus       New sentences
+   * @param learningRate Learning rate the update starts at, decaying linearly as in a fresh model
+   */
+  public static Word2Vec update(Word2Vec previous, TokenizedCorpus corpus, int windowSize, int minWordFrequency,
+                                int iterations, double learningRate, long seed, int numThreads) throws Exception {
+    VocabCache<VocabWord> previousVocab = previous.vocab();
+    InMemoryLookupTable<VocabWord> previousTable = (InMemoryLookupTable<VocabWord>) previous.getLookupTable();
+    INDArray previousSyn0 = previousTable.getSyn0();
+    INDArray previousSyn1 = previousTable.getSyn1();
+    int layerSize = previousSyn0.columns();
+    int numPrevious = previousVocab.numWords();
+
+    Map<String, Long> counts = new HashMap<>();
+    String[] words = corpus.words();
+    long[] corpusCounts = corpus.counts();
+    for (int id = 0; id < words.length; id++) {
+      counts.put(words[id], corpusCounts[id]);
+    }
+    AbstractCache<VocabWord> vocab = new AbstractCache.Builder<VocabWord>().build();
+    for (int index = 0; index < numPrevious; index++) {
+      VocabWord known = previousVocab.elementAtIndex(index);
+      Long count = counts.remove(known.getLabel());
+      VocabWord word = new VocabWord(known.getElementFrequency() + (count == null ? 0 : count), known.getLabel());
+      word.setIndex(index);
+      word.setCodes(new ArrayList<>(known.getCodes()));
+      word.setPoints(new ArrayList<>(known.getPoints()));
+      word.setCodeLength((short) known.getCodeLength());
+      vocab.addToken(word);
+      vocab.addWordToIndex(index, word.getLabel());
+    }
+    List<VocabWord> newWords = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      if (entry.getValue() >= minWordFrequency) {
+        newWords.add(new VocabWord(entry.getValue(), entry.getKey()));
+      }
+    }
+    if (!newWords.isEmpty()) {
+      new Huffman(newWords).build();
+      //Inner nodes of the new tree follow the numPrevious - 1 inner nodes of the previous one
+      for (int i = 0; i < newWords.size(); i++) {
+        VocabWord word = newWords.get(i);
+        List<Integer> points = new ArrayList<>(word.getPoints().size());
+        for (int point : word.getPoints()) {
+          points.add(point + numPrevious - 1);
+        }
+        word.setPoints(points);
+        word.setIndex(numPrevious + i);
+        vocab.addToken(word);
+        vocab.addWordToIndex(numPrevious + i, word.getLabel());
+      }
+    }
+    log.info("Vocabulary: {} previous words, {} new words", numPrevious, newWords.size());
+
+    InMemoryLookupTable<VocabWord> lookupTable = buildLookupTable(vocab, layerSize, seed);
+    lookupTable.getSyn0().get(NDArrayIndex.interval(0, numPrevious), NDArrayIndex.all()).assign(previousSyn0);
+    if (previousSyn1 != null) {
+      lookupTable.getSyn1().get(NDArrayIndex.interval(0, numPrevious), NDArrayIndex.all()).assign(previousSyn1);
+    } else {
+      log.warn("Previous model has no hierarchical softmax weights, starting them from zero");
+    }
+
+    Word2Vec vec = buildModel(vocab, lookupTable, layerSize, windowSize, minWordFrequency, iterations, seed);
+    vec.getConfiguration().setLearningRate(learningRate);
+    vec.getConfiguration().setMinLearningRate(Math.min(learningRate, vec.getConfiguration().getMinLearningRate()));
+    train(vec, corpus, iterations, seed, numThreads);
+    return vec;
+  }
+
+  /**
+   * Huffman codes and vocabulary indices for vocab, most frequent words first
+   */
+  private static void buildTree(AbstractCache<VocabWord> vocab) {
+    Huffman huffman = new Huffman(vocab.vocabWords());
+    huffman.build();
+    huffman.applyIndexes(vocab);
+  }
+
+  /**
+   * Randomly initialized lookup table with hierarchical softmax for vocab, whose Huffman codes are already set
+   */
+  private static InMemoryLookupTable<VocabWord> buildLookupTable(AbstractCache<VocabWord> vocab, int layerSize, long seed) {
+    long totalWords = 0;
+    for (VocabWord word : vocab.vocabWords()) {
+      totalWords += (long) word.getElementFrequency();
+    }
+    vocab.setTotalWordOccurences(totalWords);
+
+    InMemoryLookupTable<VocabWord> lookupTable = new InMemoryLookupTable.Builder<VocabWord>()
+        .vectorLength(layerSize)
+        .useAdaGrad(false)
+        .cache(vocab)
+        .seed(seed)
+        .useHierarchicSoftmax(true)
+        .build();
+    lookupTable.resetWeights(true);
+    return lookupTable;
+  }
+
+  private static Word2Vec buildModel(AbstractCache<VocabWord> vocab, InMemoryLookupTable<VocabWord> lookupTable,
+                                     int layerSize, int windowSize, int minWordFrequency, int iterations, long seed) {
+    return new Word2Vec.Builder()
+        .minWordFrequency(minWordFrequency)
+        .iterations(iterations)
+        .layerSize(layerSize)
+        .seed(seed)
+        .windowSize(windowSize)
+        .vocabCache(vocab)
+        .lookupTable(lookupTable)
+        .build();
+  }
+
+  /**
+   * Train vec on every sentence of corpus, iterations times, with the corpus sharded across numThreads threads
+   */
+  private static void train(Word2Vec vec, TokenizedCorpus corpus, int iterations, long seed, int numThreads)
+      throws Exception {
+    VocabCache<VocabWord> vocab = vec.vocab();
+    VectorsConfiguration configuration = vec.getConfiguration();
+    final SkipGram<VocabWord> skipGram = new SkipGram<>();
+    skipGram.configure(vocab, vec.getLookupTable(), configuration);
+
+    //Corpus id -> vocabulary element, null for words below minWordFrequency
+    String[] words = corpus.words();
+    long[] counts = corpus.counts();
+    final VocabWord[] elements = new VocabWord[words.length];
+    long totalWords = 0;
+    for (int id = 0; id < words.length; id++) {
+      elements[id] = vocab.wordFor(words[id]);
+      if (elements[id] != null) {
+        totalWords += counts[id];
+      }
+    }
+
+    final double learningRate = configuration.getLearningRate();
+    final double minLearningRate = configuration.getMinLearningRate();
+    final double totalUpdates = (double) totalWords * iterations;
+    final int numIterations = iterations;
+    final AtomicLong wordsDone = new AtomicLong();
+    long[] offsets = corpus.shardOffsets(numThreads);
+    ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    List<Future<Long>> shards = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      final TokenizedCorpus.Reader reader = corpus.reader(offsets[t], offsets[t + 1]);
+      final AtomicLong nextRandom = new AtomicLong(seed + t);
+      shards.add(workers.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          long words = 0;
+          long threadStart = System.currentTimeMillis();
+          long lastReport = threadStart;
+          for (int length = reader.next(); length >= 0; length = reader.next()) {
+            int[] ids = reader.ids();
+            Sequence<VocabWord> sequence = new Sequence<>();
+            for (int i = 0; i < length; i++) {
+              if (elements[ids[i]] != null) {
+                sequence.addElement(elements[ids[i]]);
+              }
+            }
+            if (sequence.isEmpty()) {
+              continue;
+            }
+            for (int i = 0; i < numIterations; i++) {
+              double alpha = Math.max(minLearningRate, learningRate * (1 - wordsDone.get() / totalUpdates));
+              skipGram.learnSequence(sequence, nextRandom, alpha);
+              wordsDone.addAndGet(sequence.size());
+            }
+            words += (long) sequence.size() * numIterations;
+            long now = System.currentTimeMillis();
+            if (now - lastReport > 10000) {
+              log.info("Thread {}: {} words, {} words/sec", thread, words,
+                  String.format("%.0f", words * 1000.0 / Math.max(1, now - threadStart)));
+              lastReport = now;
+            }
+          }
+          skipGram.finish();
+          long millis = Math.max(1, System.currentTimeMillis() - threadStart);
+          log.info("Thread {} done: {} words in {} ms, {} words/sec", thread, words, millis,
+              String.format("%.0f", words * 1000.0 / millis));
+          return words;
+        }
+      }));
+    }
+
+    long total = 0;
+    try {
+      for (Future<Long> shard : shards) {
+        total += shard.get();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      workers.shutdownNow();
+    }
+    long millis = Math.max(1, System.currentTimeMillis() - start);
+    log.info("Trained {} words on {} threads in {} ms, {} words/sec", total, numThreads, millis,
+        String.format("%.0f", total * 1000.0 / millis));
+  }
+}
@@ -0,0 +1,149 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import com.csvreader.CsvWriter;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.utilities.CSVUtils;
+import org.deeplearning4j.utilities.Params;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Constant-memory read -> score -> write pipeline for the test file.<br>
+ * A reader thread parses the test file into chunks of Params.streamChunkSize records, the calling thread scores each
+ * chunk with {@link LoadWord2VecSentimentRNN#scoreBatched} (or a {@link ParallelScorer} when numThreads > 1), and a writer thread appends the ID,Pred rows of each
+ * chunk to the result file and flushes them. The stages are connected by bounded queues of Params.streamQueueDepth
+ * chunks, so at most a few chunks are in memory at any time and the first results are on disk after the first chunk.<br>
+ * With resume, a result file that holds records of the same test file (checked against the sidecar written by
+ * {@link CSVUtils#writeResultSource}) is continued after the last ID that was completely written; a result file of
+ * another test file is an error. Without resume, the result file is started over.
+ */
+public class StreamingScorer {
+  private static Logger log = LoggerFactory.getLogger(StreamingScorer.class);
+
+  /** Marks the end of the stream in a queue */
+  private static final List<TestData> END = new ArrayList<>();
+
+  public static void run(final MultiLayerNetwork net, final SentimentIterator featurizer, final String testDataPath,
+                         final String resultCsvPath, final int batchSize, final int truncateReviewsToLength,
+                         int numThreads, boolean resume) throws Exception {
+    File resultFile = new File(resultCsvPath);
+    File input = new File(testDataPath);
+    Integer resumeAfterId = null;
+    if (resume && resultFile.exists()) {
+      if (!CSVUtils.isResultOf(resultCsvPath, input)) {
+        throw new IllegalStateException(resultCsvPath + " was not written for the current " + testDataPath
+                + "; delete it or turn resuming off");
+      }
+      resumeAfterId = CSVUtils.lastWrittenId(resultCsvPath);
+      if (resumeAfterId != null) {
+        log.info("Resuming after ID {} found in {}", resumeAfterId, resultCsvPath);
+      }
+    } else if (resultFile.exists() && !resultFile.delete()) {
+      throw new IOException("Could not delete the old " + resultCsvPath);
+    }
+    CSVUtils.writeResultSource(resultCsvPath, input);
+    final Integer resumeAfter = resumeAfterId;
+    final BlockingQueue<List<TestData>> toScore = new ArrayBlockingQueue<>(Params.streamQueueDepth);
+    final BlockingQueue<List<TestData>> toWrite = new ArrayBlockingQueue<>(Params.streamQueueDepth);
+    final CsvWriter csvWriter = CSVUtils.openCsvAppender(resultCsvPath);
+    final AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService stages = Executors.newFixedThreadPool(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "streaming-scorer-" + threadCount.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    final long start = System.currentTimeMillis();
+
+    Future<Void> reader = stages.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        try {
+          DealTest.readChunks(testDataPath, resumeAfter, Params.streamChunkSize, new DealTest.ChunkHandler() {
+            @Override
+            public void accept(List<TestData> chunk) throws InterruptedException {
+              toScore.put(chunk);
+            }
+          });
+        } catch (InterruptedException e) {
+          throw e;   //Cancelled by shutdownNow; nobody takes from the queue any more
+        } catch (Exception e) {
+          toScore.put(END);
+          throw e;
+        }
+        toScore.put(END);
+        return null;
+      }
+    });
+
+    Future<Long> writer = stages.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        long written = 0;
+        Exception failure = null;
+        try {
+          for (List<TestData> chunk = toWrite.take(); chunk != END; chunk = toWrite.take()) {
+            if (failure != null) {
+              continue;   //Keep draining so the scoring stage never blocks
+            }
+            try {
+              CSVUtils.appendRecords(csvWriter, chunk);
+              if (written == 0) {
+                log.info("First results written after {} ms", System.currentTimeMillis() - start);
+              }
+              written += chunk.size();
+            } catch (Exception e) {
+              failure = e;
+            }
+          }
+        } finally {
+          csvWriter.close();
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        return written;
+      }
+    });
+
+    ParallelScorer scorer = numThreads > 1 ? new ParallelScorer(net, featurizer, numThreads) : null;
+    try {
+      for (List<TestData> chunk = toScore.take(); chunk != END; chunk = toScore.take()) {
+        if (scorer != null) {
+          scorer.score(chunk, batchSize, truncateReviewsToLength);
+        } else {
+          LoadWord2VecSentimentRNN.scoreBatched(net, featurizer, chunk, batchSize, truncateReviewsToLength);
+        }
+        toWrite.put(chunk);
+      }
+    } catch (Exception e) {
+      //Unblock the reader and writer; rows that were flushed stay on disk for the next run to resume from
+      stages.shutdownNow();
+      throw e;
+    } finally {
+      if (scorer != null) {
+        scorer.shutdown();
+      }
+    }
+    toWrite.put(END);
+    stages.shutdown();
+    reader.get();
+    long written = writer.get();
+    log.info("Wrote {} results to {} in {} ms", written, resultCsvPath, System.currentTimeMillis() - start);
+  }
+}
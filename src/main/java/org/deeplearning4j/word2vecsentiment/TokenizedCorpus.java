@@ -0,0 +1,278 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.text.sentenceiterator.BasicLineIterator;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.TokenizerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text corpus tokenized once into a compact binary file of token ids, so that Word2Vec training passes do not read and
+ * tokenize the text again.<br>
+ * File layout (big endian): magic, source file length, source file last-modified time, sentence count, token count,
+ * dictionary offset; then per sentence its length followed by its token ids; then the dictionary, one word (UTF) and
+ * its corpus frequency per id. Ids are assigned in order of first occurrence.<br>
+ * The token section is memory-mapped in 1 GB segments. Everything in it is a 4 byte int at a 4 byte aligned offset,
+ * so no int straddles two segments.
+ */
+public class TokenizedCorpus {
+  private static Logger log = LoggerFactory.getLogger(TokenizedCorpus.class);
+
+  private static final int MAGIC = 0x544f4b31;
+  private static final int HEADER_BYTES = 4 + 8 + 8 + 4 + 8 + 8;
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final MappedByteBuffer[] segments;
+  private final int numSentences;
+  private final long numTokens;
+  private final long dataEnd;
+  private final String[] words;
+  private final long[] counts;
+
+  private TokenizedCorpus(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      raf.readInt();
+      raf.readLong();
+      raf.readLong();
+      numSentences = raf.readInt();
+      numTokens = raf.readLong();
+      dataEnd = raf.readLong();
+      if (dataEnd < HEADER_BYTES || dataEnd > raf.length()) {
+        throw new IOException("Corpus file " + file + " is truncated or corrupt: data ends at " + dataEnd + " of "
+            + raf.length() + " bytes");
+      }
+
+      segments = new MappedByteBuffer[(int) ((dataEnd + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, dataEnd - start));
+      }
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      long skipped = 0;
+      while (skipped < dataEnd) {
+        long n = in.skip(dataEnd - skipped);
+        if (n <= 0) {
+          throw new EOFException("Corpus file " + file + " ends before its vocabulary");
+        }
+        skipped += n;
+      }
+      int vocabSize = in.readInt();
+      words = new String[vocabSize];
+      counts = new long[vocabSize];
+      for (int i = 0; i < vocabSize; i++) {
+        words[i] = in.readUTF();
+        counts[i] = in.readLong();
+      }
+    }
+  }
+
+  /**
+   * Open the tokenized corpus of a text file, tokenizing it first if the binary file is missing or was written for
+   * another version of the text file
+   *
+   * @param textFile         One sentence per line
+   * @param corpusFile       Binary token-id file
+   * @param tokenizerFactory Tokenizer (with preprocessor) applied to every line
+   */
+  public static TokenizedCorpus openOrBuild(File textFile, File corpusFile, TokenizerFactory tokenizerFactory) throws IOException {
+    if (!isCurrent(textFile, corpusFile)) {
+      log.info("Tokenizing {} into {}", textFile, corpusFile);
+      build(textFile, corpusFile, tokenizerFactory);
+    }
+    return new TokenizedCorpus(corpusFile);
+  }
+
+  private static boolean isCurrent(File textFile, File corpusFile) throws IOException {
+    if (!corpusFile.exists() || corpusFile.length() < HEADER_BYTES) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(corpusFile))) {
+      return in.readInt() == MAGIC && in.readLong() == textFile.length() && in.readLong() == textFile.lastModified();
+    }
+  }
+
+  /**
+   * Tokenize every line of textFile and write the binary file. Written to a temporary file first and renamed, so an
+   * interrupted run never leaves a truncated corpus behind.
+   */
+  public static void build(File textFile, File corpusFile, TokenizerFactory tokenizerFactory) throws IOException {
+    File tmp = new File(corpusFile.getPath() + ".tmp");
+    Map<String, Integer> ids = new HashMap<>();
+    List<String> words = new ArrayList<>();
+    List<long[]> counts = new ArrayList<>();
+    int numSentences = 0;
+    long numTokens = 0;
+    long dataEnd;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeLong(textFile.length());
+      out.writeLong(textFile.lastModified());
+      out.writeInt(0);
+      out.writeLong(0);
+      out.writeLong(0);
+
+      BasicLineIterator lines = new BasicLineIterator(textFile);
+      try {
+        while (lines.hasNext()) {
+          List<String> tokens = tokenizerFactory.create(lines.nextSentence()).getTokens();
+          int length = 0;
+          for (String token : tokens) {
+            if (!token.isEmpty()) {
+              length++;
+            }
+          }
+          if (length == 0) {
+            continue;
+          }
+          out.writeInt(length);
+          for (String token : tokens) {
+            if (token.isEmpty()) {
+              continue;
+            }
+            Integer id = ids.get(token);
+            if (id == null) {
+              id = words.size();
+              ids.put(token, id);
+              words.add(token);
+              counts.add(new long[1]);
+            }
+            counts.get(id)[0]++;
+            out.writeInt(id);
+          }
+          numSentences++;
+          numTokens += length;
+        }
+      } finally {
+        lines.finish();
+      }
+      dataEnd = HEADER_BYTES + 4L * (numSentences + numTokens);
+
+      out.writeInt(words.size());
+      for (int i = 0; i < words.size(); i++) {
+        out.writeUTF(words.get(i));
+        out.writeLong(counts.get(i)[0]);
+      }
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+      raf.seek(4 + 8 + 8);
+      raf.writeInt(numSentences);
+      raf.writeLong(numTokens);
+      raf.writeLong(dataEnd);
+    }
+    Files.move(tmp.toPath(), corpusFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private int intAt(long position) {
+    return segments[(int) (position / SEGMENT_SIZE)].getInt((int) (position % SEGMENT_SIZE));
+  }
+
+  /**
+   * Split the sentences into numShards contiguous ranges holding about the same number of tokens each
+   *
+   * @return numShards + 1 byte offsets: shard i covers [offsets[i], offsets[i + 1])
+   */
+  public long[] shardOffsets(int numShards) {
+    long[] offsets = new long[numShards + 1];
+    int shard = 1;
+    long tokensSeen = 0;
+    long position = HEADER_BYTES;
+    while (position < dataEnd && shard < numShards) {
+      if (tokensSeen >= numTokens * shard / numShards) {
+        offsets[shard++] = position;
+      }
+      int length = intAt(position);
+      tokensSeen += length;
+      position += 4L * (length + 1);
+    }
+    offsets[0] = HEADER_BYTES;
+    for (int i = shard; i <= numShards; i++) {
+      offsets[i] = dataEnd;
+    }
+    return offsets;
+  }
+
+  /**
+   * Reads the sentences of one shard in order. Not thread-safe: use one reader per thread.
+   */
+  public class Reader {
+    private final long end;
+    private long position;
+    private int[] buffer = new int[64];
+
+    private Reader(long start, long end) {
+      this.position = start;
+      this.end = end;
+    }
+
+    /**
+     * @return Length of the next sentence, whose ids are then in {@link #ids()}; -1 at the end of the shard
+     */
+    public int next() {
+      if (position >= end) {
+        return -1;
+      }
+      int length = intAt(position);
+      position += 4;
+      if (buffer.length < length) {
+        buffer = new int[Math.max(length, buffer.length * 2)];
+      }
+      for (int i = 0; i < length; i++, position += 4) {
+        buffer[i] = intAt(position);
+      }
+      return length;
+    }
+
+    /**
+     * @return Token ids of the current sentence; valid up to the length returned by {@link #next()}
+     */
+    public int[] ids() {
+      return buffer;
+    }
+  }
+
+  public Reader reader(long start, long end) {
+    return new Reader(start, end);
+  }
+
+  public int numSentences() {
+    return numSentences;
+  }
+
+  public long numTokens() {
+    return numTokens;
+  }
+
+  /**
+   * @return Word of every id
+   */
+  public String[] words() {
+    return words;
+  }
+
+  /**
+   * @return Corpus frequency of every id
+   */
+  public long[] counts() {
+    return counts;
+  }
+}
@@ -0,0 +1,290 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.deeplearning4j.util.ModelSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Training listener that writes a checkpoint every everyBatches minibatches, from which an interrupted run continues
+ * exactly where it stopped.<br>
+ * A checkpoint is a ModelSerializer zip of the network with its updater state, iteration and epoch count, plus a
+ * {@link State}: the epoch, the number of minibatches of that epoch already fitted, the minibatch shape and the
+ * example order of the training iterator with its shuffle RNG and, with {@link #setEarlyStopping}, the scores and
+ * best epoch of early stopping. Checkpoint names carry a fingerprint of the network
+ * configuration and the input files ({@link #fingerprint}), so a run only resumes from checkpoints of the same
+ * configuration and data; {@link #deleteAll} removes them once the run finished. The network has no other source of randomness during fit (no dropout), so
+ * resuming from a checkpoint gives the same parameters as a run that was never interrupted.<br>
+ * The network is copied on the training thread and written on a background thread (temporary file, then rename), so
+ * fit never waits for the disk. If the previous checkpoint is still being written when the next one is due, the next
+ * one is skipped; {@link #save} at the end of an epoch waits for it instead. Only the newest keep checkpoints are kept.
+ */
+public class TrainingCheckpoints extends BaseTrainingListener {
+  private static Logger log = LoggerFactory.getLogger(TrainingCheckpoints.class);
+  private static final String PREFIX = "checkpoint-";
+  private static final String SUFFIX = ".zip";
+  private static final String STATE_KEY = "trainingState";
+
+  private final File directory;
+  private final long fingerprint;
+  private final int everyBatches;
+  private final int keep;
+  private final SentimentIterator train;
+  private final ExecutorService writer;
+  private Future<?> pending;
+  private BackgroundEarlyStopping earlyStopping;
+  private int epoch = 0;
+  private int batchesDone = 0;
+
+  /**
+   * Position of a checkpoint in the training run
+   */
+  public static class State implements Serializable {
+    private static final long serialVersionUID = 3L;
+    private final int epoch;
+    private final int batchesDone;
+    private final int batchSize;
+    private final int truncateLength;
+    private final byte[] iteratorState;
+    private final BackgroundEarlyStopping.Progress earlyStopping;
+
+    public State(int epoch, int batchesDone, int batchSize, int truncateLength, byte[] iteratorState,
+                 BackgroundEarlyStopping.Progress earlyStopping) {
+      this.epoch = epoch;
+      this.batchesDone = batchesDone;
+      this.batchSize = batchSize;
+      this.truncateLength = truncateLength;
+      this.iteratorState = iteratorState;
+      this.earlyStopping = earlyStopping;
+    }
+
+    public int getEpoch() {
+      return epoch;
+    }
+
+    /**
+     * @return Number of minibatches of the epoch fitted before the checkpoint
+     */
+    public int getBatchesDone() {
+      return batchesDone;
+    }
+
+    /**
+     * @return Batch size of the training iterator; minibatch positions are only valid with this batch size
+     */
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public int getTruncateLength() {
+      return truncateLength;
+    }
+
+    /**
+     * @return See {@link SentimentIterator#orderState()}
+     */
+    public byte[] getIteratorState() {
+      return iteratorState;
+    }
+
+    /**
+     * @return Early stopping scores evaluated when the checkpoint was taken, null without early stopping
+     */
+    public BackgroundEarlyStopping.Progress getEarlyStopping() {
+      return earlyStopping;
+    }
+  }
+
+  /**
+   * @param directory    Directory of the checkpoints, created if missing
+   * @param fingerprint  Fingerprint of the configuration and inputs of the run, see {@link #fingerprint}
+   * @param everyBatches Minibatches between two checkpoints. 0: only the checkpoints written with {@link #save}
+   * @param keep         Number of checkpoints kept on disk
+   * @param train        Training iterator, whose example order is saved with every checkpoint
+   */
+  public TrainingCheckpoints(File directory, long fingerprint, int everyBatches, int keep, SentimentIterator train) {
+    this.directory = directory;
+    this.fingerprint = fingerprint;
+    this.everyBatches = everyBatches;
+    this.keep = Math.max(1, keep);
+    this.train = train;
+    directory.mkdirs();
+    this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Save the progress of earlyStopping with every checkpoint
+   */
+  public void setEarlyStopping(BackgroundEarlyStopping earlyStopping) {
+    this.earlyStopping = earlyStopping;
+  }
+
+  /**
+   * Set the position of the next minibatch: the first minibatch of a new epoch, or where a resumed run continues
+   */
+  public void startEpoch(int epoch, int batchesDone) {
+    this.epoch = epoch;
+    this.batchesDone = batchesDone;
+  }
+
+  @Override
+  public void iterationDone(Model model, int iteration, int epoch) {
+    batchesDone++;
+    if (everyBatches > 0 && batchesDone % everyBatches == 0) {
+      //Listeners run before the iteration count of this minibatch is incremented
+      save((MultiLayerNetwork) model, iteration + 1);
+    }
+  }
+
+  /**
+   * Copy net and the training position and write them in the background, after waiting for the previous checkpoint
+   * if it is still being written. Meant for the end of an epoch, which should never be skipped.
+   */
+  public void save(MultiLayerNetwork net) throws InterruptedException {
+    awaitPending();
+    save(net, net.getIterationCount());
+  }
+
+  private void awaitPending() throws InterruptedException {
+    if (pending != null) {
+      try {
+        pending.get();
+      } catch (ExecutionException e) {
+        log.warn("Writing the previous checkpoint failed", e.getCause());
+      }
+    }
+  }
+
+  private void save(MultiLayerNetwork net, int iterationCount) {
+    if (pending != null && !pending.isDone()) {
+      log.warn("Previous checkpoint still being written, skipping the one at epoch {} minibatch {}", epoch, batchesDone);
+      return;
+    }
+    final MultiLayerNetwork snapshot = net.clone();
+    snapshot.setIterationCount(iterationCount);
+    final State state;
+    try {
+      state = new State(epoch, batchesDone, train.batch(), train.getTruncateLength(), train.orderState(),
+          earlyStopping == null ? null : earlyStopping.progress());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    final File file = new File(directory, String.format("%s%05d-%07d%s", prefix(fingerprint), epoch, batchesDone, SUFFIX));
+    pending = writer.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        long start = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        ModelSerializer.writeModel(snapshot, tmp, true);
+        ModelSerializer.addObjectToFile(tmp, STATE_KEY, state);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote checkpoint {} in {} ms", file, System.currentTimeMillis() - start);
+        File[] all = list(directory, fingerprint);
+        for (int i = 0; i < all.length - keep; i++) {
+          if (!all[i].delete()) {
+            log.warn("Could not delete old checkpoint {}", all[i]);
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Wait for the checkpoint being written, if any, and stop the writer thread
+   */
+  public void shutdown() throws InterruptedException {
+    awaitPending();
+    writer.shutdown();
+  }
+
+  /**
+   * Delete every checkpoint of this run, e.g. once it finished and its model is saved, so the next run starts over.
+   * Call after {@link #shutdown()}.
+   */
+  public void deleteAll() {
+    for (File file : list(directory, fingerprint)) {
+      if (!file.delete()) {
+        log.warn("Could not delete checkpoint {}", file);
+      }
+    }
+  }
+
+  /**
+   * Fingerprint of a training run: config, plus length and last-modified time of every input file. Checkpoints of
+   * another fingerprint are never resumed from.
+   *
+   * @param config Everything of the configuration that the training result depends on, e.g. the network JSON
+   */
+  public static long fingerprint(String config, File... inputs) {
+    long fingerprint = config.hashCode();
+    for (File input : inputs) {
+      fingerprint = 31 * fingerprint + input.getAbsolutePath().hashCode();
+      fingerprint = 31 * fingerprint + input.length();
+      fingerprint = 31 * fingerprint + input.lastModified();
+    }
+    return fingerprint;
+  }
+
+  private static String prefix(long fingerprint) {
+    return String.format("%s%016x-", PREFIX, fingerprint);
+  }
+
+  private static File[] list(File directory, long fingerprint) {
+    final String prefix = prefix(fingerprint);
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(prefix) && name.endsWith(SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    //Epoch and minibatch are zero-padded, so the names sort oldest first
+    Arrays.sort(files);
+    return files;
+  }
+
+  /**
+   * @return Newest checkpoint with this fingerprint in directory, null if there is none
+   */
+  public static File latest(File directory, long fingerprint) {
+    File[] files = list(directory, fingerprint);
+    return files.length == 0 ? null : files[files.length - 1];
+  }
+
+  /**
+   * @return Network of a checkpoint, with its updater state
+   */
+  public static MultiLayerNetwork restoreNetwork(File checkpoint) throws IOException {
+    return ModelSerializer.restoreMultiLayerNetwork(checkpoint, true);
+  }
+
+  public static State restoreState(File checkpoint) {
+    return ModelSerializer.getObjectFromFile(checkpoint, STATE_KEY);
+  }
+}
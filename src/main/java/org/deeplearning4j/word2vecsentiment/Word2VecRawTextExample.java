@@ -11,6 +11,10 @@ import org.deeplearning4j.utilities.Params;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 
 /**
@@ -32,8 +36,84 @@ public class Word2VecRawTextExample {
     String filePath = "E:\\chenyuan\\dataSets\\word.txt";
 
     log.info("Load & Vectorize Sentences....");
-    // Strip white space before and after for each line
-    SentenceIterator iter = new BasicLineIterator(filePath);
+    TokenizerFactory t = tokenizerFactory();
+
+    Word2Vec vec;
+    if (Params.pretokenizedWord2Vec) {
+      //Tokenize once into word.txt.tok (again only when word.txt changes), then train on sharded token ids
+      TokenizedCorpus corpus = TokenizedCorpus.openOrBuild(new File(filePath), new File(filePath + ".tok"), t);
+      log.info("Fitting Word2Vec model on {} sentences, {} tokens....", corpus.numSentences(), corpus.numTokens());
+      vec = ShardedWord2Vec.fit(corpus, 50, Params.windowSize, Params.minWordFrequency, Params.iterations, 42,
+          Params.word2vecWorkers);
+    } else {
+      // Strip white space before and after for each line
+      SentenceIterator iter = new BasicLineIterator(filePath);
+      log.info("Building model....");
+      vec = new Word2Vec.Builder()
+              .minWordFrequency(Params.minWordFrequency)
+              .iterations(Params.iterations)
+              .layerSize(50)
+              .seed(42)
+              .windowSize(Params.windowSize)
+              .iterate(iter)
+              .tokenizerFactory(t)
+              .build();
+
+      log.info("Fitting Word2Vec model....");
+      vec.fit();
+    }
+
+    log.info("Writing word vectors to text file....");
+    File modelFile = new File(Params.WORD_VECTORS_PATH);
+    writeModel(vec, modelFile);
+    logClosestWords(vec, modelFile);
+
+    // TODO resolve missing UiServer
+//        UiServer server = UiServer.getInstance();
+//        System.out.println("Started on port " + server.getPort());
+  }
+
+  /**
+   * Update the model at Params.WORD_VECTORS_PATH with the sentences in Params.word2vecDeltaPath instead of training on
+   * the whole corpus again: new words are added to the vocabulary and existing vectors are refined. Falls back to
+   * {@link #run()} when there is no previous model yet.
+   */
+  public static void runIncremental() throws Exception {
+    File modelFile = new File(Params.WORD_VECTORS_PATH);
+    if (!modelFile.exists()) {
+      log.info("No previous model at {}, training from scratch", modelFile);
+      run();
+      return;
+    }
+    log.info("Loading previous model....");
+    Word2Vec previous = WordVectorSerializer.readWord2VecModel(modelFile, true);
+    File deltaFile = new File(Params.word2vecDeltaPath);
+    TokenizedCorpus delta = TokenizedCorpus.openOrBuild(deltaFile, new File(deltaFile.getPath() + ".tok"), tokenizerFactory());
+    log.info("Updating Word2Vec model with {} sentences, {} tokens....", delta.numSentences(), delta.numTokens());
+    Word2Vec vec = ShardedWord2Vec.update(previous, delta, Params.windowSize, Params.minWordFrequency, Params.iterations,
+        Params.word2vecUpdateLearningRate, 42, Params.word2vecWorkers);
+
+    log.info("Writing word vectors to text file....");
+    writeModel(vec, modelFile);
+    logClosestWords(vec, modelFile);
+  }
+
+  /**
+   * Build (or load, if the model did not change) the nearest-neighbour index saved next to the model, check its recall
+   * against the exact scan and print the closest words to "day"
+   */
+  private static void logClosestWords(Word2Vec vec, File modelFile) throws Exception {
+    WordVectorIndex index = WordVectorIndex.openOrBuild(vec, modelFile, new File(modelFile.getPath() + ".hnsw"),
+        Params.annLinks, Params.annEfConstruction, Params.word2vecWorkers);
+    index.setEfSearch(Params.annEfSearch);
+    index.recall(Math.min(1000, index.size()), 10, 42);
+    // Prints out the closest 10 words to "day". An example on what to do with these Word Vectors.
+    log.info("Closest Words:");
+    Collection<String> lst = index.wordsNearest("day", 10);
+    log.info("10 Words closest to 'day': {}", lst);
+  }
+
+  private static TokenizerFactory tokenizerFactory() {
     // Split on white spaces in the line to get words
     TokenizerFactory t = new DefaultTokenizerFactory();
 
@@ -43,30 +123,15 @@ public class Word2VecRawTextExample {
             Additionally it forces lower case for all tokens.
          */
     t.setTokenPreProcessor(new CommonPreprocessor());
+    return t;
+  }
 
-    log.info("Building model....");
-    Word2Vec vec = new Word2Vec.Builder()
-            .minWordFrequency(Params.minWordFrequency)
-            .iterations(Params.iterations)
-            .layerSize(50)
-            .seed(42)
-            .windowSize(Params.windowSize)
-            .iterate(iter)
-            .tokenizerFactory(t)
-            .build();
-
-    log.info("Fitting Word2Vec model....");
-    vec.fit();
-
-    log.info("Writing word vectors to text file....");
-    WordVectorSerializer.writeWord2VecModel(vec, Params.WORD_VECTORS_PATH);
-    // Prints out the closest 10 words to "day". An example on what to do with these Word Vectors.
-    log.info("Closest Words:");
-    Collection<String> lst = vec.wordsNearestSum("day", 10);
-    log.info("10 Words closest to 'day': {}", lst);
-
-    // TODO resolve missing UiServer
-//        UiServer server = UiServer.getInstance();
-//        System.out.println("Started on port " + server.getPort());
+  /**
+   * Write to a temporary file and rename it, so readers of the model file never see a partly written model
+   */
+  private static void writeModel(Word2Vec vec, File file) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    WordVectorSerializer.writeWord2VecModel(vec, tmp);
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
   }
 }
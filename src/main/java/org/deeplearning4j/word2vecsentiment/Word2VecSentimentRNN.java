@@ -5,6 +5,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.util.ModelSerializer;
 import org.deeplearning4j.utilities.DataUtilities;
+import org.deeplearning4j.utilities.Params;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.deeplearning4j.nn.conf.GradientNormalization;
@@ -114,8 +115,10 @@ public class Word2VecSentimentRNN {
       train.reset();
       System.out.println("Epoch " + i + " complete. Starting evaluation:");
 
-      //Run evaluation. This is on 25k reviews, so can take some time
-      Evaluation evaluation = net.evaluate(test);
+      //Run evaluation. This is on 25k reviews, so it is split across evaluationThreads
+      ParallelEvaluator evaluator = new ParallelEvaluator(net, test, Params.evaluationThreads);
+      Evaluation evaluation = evaluator.evaluate();
+      evaluator.shutdown();
       System.out.println(evaluation.stats());
     }
     log.info("SAVE TRAINED MODEL");
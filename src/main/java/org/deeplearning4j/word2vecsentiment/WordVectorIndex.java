@@ -0,0 +1,757 @@
+package org.deeplearning4j.word2vecsentiment;
+
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximate nearest-neighbour index over word vectors by cosine similarity: a hierarchical navigable small world
+ * graph (HNSW, Malkov and Yashunin 2016).<br>
+ * Every word is a node linked to about m similar words on layer 0, and a random, exponentially shrinking subset of the
+ * words also sits on the layers above. A query walks greedily from the single node on the top layer down to layer 0
+ * and then runs a best-first search keeping the efSearch best nodes, so it compares the query with a few thousand
+ * vectors instead of the whole vocabulary.<br>
+ * Vectors are stored normalized to unit length as floats, so similarity is a dot product. The graph can be saved next
+ * to the model and is rebuilt only when the model file changes.
+ */
+public class WordVectorIndex {
+  private static Logger log = LoggerFactory.getLogger(WordVectorIndex.class);
+  private static final int MAGIC = 0x484e5357;
+  private static final int LOCK_STRIPES = 1024;
+
+  private final String[] words;
+  private final Map<String, Integer> ids;
+  private final int dim;
+  private final float[] vectors;
+  private final int m;
+  private final int[] levels;
+  //links[node][level]: number of neighbours, then their ids
+  private final int[][][] links;
+  private int entryPoint;
+  private int maxLevel;
+  private int efSearch = 64;
+
+  //Only used while building, when several threads insert nodes at the same time
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  private boolean building;
+
+  private final ThreadLocal<Visited> visited = new ThreadLocal<Visited>() {
+    @Override
+    protected Visited initialValue() {
+      return new Visited(words.length);
+    }
+  };
+
+  private WordVectorIndex(String[] words, int dim, float[] vectors, int m, int[] levels, int[][][] links) {
+    this.words = words;
+    this.dim = dim;
+    this.vectors = vectors;
+    this.m = m;
+    this.levels = levels;
+    this.links = links;
+    this.ids = new HashMap<>(words.length * 2);
+    for (int i = 0; i < words.length; i++) {
+      ids.put(words[i], i);
+    }
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Index every word of vec
+   *
+   * @param m              Links per node on the upper layers, 2 * m on layer 0. 16 suits word vectors of a few hundred dimensions
+   * @param efConstruction Candidates kept while searching for the neighbours of a new node; higher builds a better graph, slower
+   * @param numThreads     Threads inserting nodes
+   */
+  public static WordVectorIndex build(WordVectors vec, int m, int efConstruction, int numThreads, long seed)
+      throws Exception {
+    long start = System.currentTimeMillis();
+    int n = vec.vocab().numWords();
+    String[] words = new String[n];
+    int dim = -1;
+    float[] vectors = null;
+    for (int i = 0; i < n; i++) {
+      words[i] = vec.vocab().wordAtIndex(i);
+      float[] v = vec.getWordVectorMatrix(words[i]).dup().data().asFloat();
+      if (vectors == null) {
+        dim = v.length;
+        vectors = new float[vectorsLength(n, dim)];
+      }
+      normalize(v);
+      System.arraycopy(v, 0, vectors, i * dim, dim);
+    }
+
+    //Node levels are drawn up front so that the graph does not depend on the order in which threads insert nodes
+    Random random = new Random(seed);
+    double levelMultiplier = 1 / Math.log(m);
+    int[] levels = new int[n];
+    int[][][] links = new int[n][][];
+    for (int i = 0; i < n; i++) {
+      levels[i] = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+      links[i] = new int[levels[i] + 1][];
+      for (int level = 0; level <= levels[i]; level++) {
+        links[i][level] = new int[1 + (level == 0 ? 2 * m : m)];
+      }
+    }
+
+    final WordVectorIndex index = new WordVectorIndex(words, dim, vectors, m, levels, links);
+    if (n > 0) {
+      index.entryPoint = 0;
+      index.maxLevel = levels[0];
+    }
+    index.insertAll(1, n, efConstruction, numThreads);
+    log.info("Indexed {} words in {} ms", n, System.currentTimeMillis() - start);
+    return index;
+  }
+
+  private void insertAll(int from, final int to, final int efConstruction, int numThreads) throws Exception {
+    building = true;
+    final AtomicInteger next = new AtomicInteger(from);
+    ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(workers.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int node = next.getAndIncrement(); node < to; node = next.getAndIncrement()) {
+            insert(node, efConstruction);
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      workers.shutdownNow();
+      building = false;
+    }
+  }
+
+  private void insert(int node, int efConstruction) {
+    int level = levels[node];
+    int enter;
+    int top;
+    synchronized (this) {
+      enter = entryPoint;
+      top = maxLevel;
+    }
+    int offset = node * dim;
+    for (int l = top; l > level; l--) {
+      enter = greedy(vectors, offset, enter, l);
+    }
+    for (int l = Math.min(level, top); l >= 0; l--) {
+      NodeHeap candidates = searchLayer(vectors, offset, enter, efConstruction, l);
+      int[] selected = selectNeighbours(offset, candidates.sortedIds(), candidates.size(), m);
+      setLinks(node, l, selected, selected.length);
+      for (int neighbour : selected) {
+        addLink(neighbour, node, l);
+      }
+      enter = candidates.best();
+    }
+    if (level > top) {
+      synchronized (this) {
+        if (level > maxLevel) {
+          maxLevel = level;
+          entryPoint = node;
+        }
+      }
+    }
+  }
+
+  /**
+   * Keep the candidates (sorted most similar first) that are more similar to the node at offset than to any candidate
+   * kept before them, so the links point in different directions; top up with the rest if fewer than max are kept
+   */
+  private int[] selectNeighbours(int offset, int[] candidates, int count, int max) {
+    int[] selected = new int[Math.min(max, count)];
+    boolean[] taken = new boolean[count];
+    int size = 0;
+    for (int i = 0; i < count && size < selected.length; i++) {
+      int c = candidates[i];
+      float similarity = dot(vectors, offset, c);
+      boolean keep = true;
+      for (int j = 0; j < size && keep; j++) {
+        keep = dot(vectors, c * dim, selected[j]) < similarity;
+      }
+      if (keep) {
+        selected[size++] = c;
+        taken[i] = true;
+      }
+    }
+    for (int i = 0; i < count && size < selected.length; i++) {
+      if (!taken[i]) {
+        selected[size++] = candidates[i];
+      }
+    }
+    return selected;
+  }
+
+  private void addLink(int node, int neighbour, int level) {
+    synchronized (lock(node)) {
+      int[] list = links[node][level];
+      int count = list[0];
+      if (count < list.length - 1) {
+        list[count + 1] = neighbour;
+        list[0] = count + 1;
+        return;
+      }
+      //Full: choose again among the current links and the new one
+      NodeHeap candidates = new NodeHeap(count + 1, false);
+      int offset = node * dim;
+      for (int i = 1; i <= count; i++) {
+        candidates.push(list[i], dot(vectors, offset, list[i]));
+      }
+      candidates.push(neighbour, dot(vectors, offset, neighbour));
+      int[] selected = selectNeighbours(offset, candidates.sortedIds(), candidates.size(), count);
+      System.arraycopy(selected, 0, list, 1, selected.length);
+      list[0] = selected.length;
+    }
+  }
+
+  private void setLinks(int node, int level, int[] neighbours, int count) {
+    synchronized (lock(node)) {
+      int[] list = links[node][level];
+      System.arraycopy(neighbours, 0, list, 1, count);
+      list[0] = count;
+    }
+  }
+
+  private Object lock(int node) {
+    return locks[node % LOCK_STRIPES];
+  }
+
+  /**
+   * Neighbours of node on level, copied into buffer while other threads may be changing them
+   *
+   * @return Number of neighbours
+   */
+  private int neighbours(int node, int level, int[] buffer) {
+    int[] list = links[node][level];
+    if (!building) {
+      System.arraycopy(list, 1, buffer, 0, list[0]);
+      return list[0];
+    }
+    synchronized (lock(node)) {
+      System.arraycopy(list, 1, buffer, 0, list[0]);
+      return list[0];
+    }
+  }
+
+  private int greedy(float[] query, int offset, int enter, int level) {
+    int[] buffer = visited.get().buffer;
+    int best = enter;
+    float bestSimilarity = dot(query, offset, best);
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      int count = neighbours(best, level, buffer);
+      for (int i = 0; i < count; i++) {
+        float similarity = dot(query, offset, buffer[i]);
+        if (similarity > bestSimilarity) {
+          bestSimilarity = similarity;
+          best = buffer[i];
+          improved = true;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Best-first search of one layer from enter
+   *
+   * @return The ef nodes most similar to the query found on the way
+   */
+  private NodeHeap searchLayer(float[] query, int offset, int enter, int ef, int level) {
+    Visited seen = visited.get();
+    seen.clear();
+    int[] buffer = seen.buffer;
+    NodeHeap candidates = new NodeHeap(ef * 4, true);
+    NodeHeap results = new NodeHeap(ef + 1, false);
+    float similarity = dot(query, offset, enter);
+    seen.add(enter);
+    candidates.push(enter, similarity);
+    results.push(enter, similarity);
+    while (candidates.size() > 0) {
+      if (candidates.topScore() < results.topScore() && results.size() >= ef) {
+        break;
+      }
+      int current = candidates.pop();
+      int count = neighbours(current, level, buffer);
+      for (int i = 0; i < count; i++) {
+        int neighbour = buffer[i];
+        if (!seen.add(neighbour)) {
+          continue;
+        }
+        similarity = dot(query, offset, neighbour);
+        if (results.size() < ef || similarity > results.topScore()) {
+          candidates.push(neighbour, similarity);
+          results.push(neighbour, similarity);
+          if (results.size() > ef) {
+            results.pop();
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Ids of the k nodes most similar to query (unit length), most similar first
+   */
+  private int[] search(float[] query, int k) {
+    if (words.length == 0) {
+      return new int[0];
+    }
+    int enter = entryPoint;
+    for (int level = maxLevel; level > 0; level--) {
+      enter = greedy(query, 0, enter, level);
+    }
+    NodeHeap results = searchLayer(query, 0, enter, Math.max(efSearch, k), 0);
+    int[] sorted = results.sortedIds();
+    return Arrays.copyOf(sorted, Math.min(k, results.size()));
+  }
+
+  /**
+   * Approximate counterpart of WordVectors.wordsNearest(word, n): the n words most similar to word, without word
+   *
+   * @return Empty if word is not in the index
+   */
+  public List<String> wordsNearest(String word, int n) {
+    Integer id = ids.get(word);
+    if (id == null) {
+      return new ArrayList<>();
+    }
+    float[] query = Arrays.copyOfRange(vectors, id * dim, (id + 1) * dim);
+    List<String> nearest = new ArrayList<>(n);
+    for (int node : search(query, n + 1)) {
+      if (node != id && nearest.size() < n) {
+        nearest.add(words[node]);
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * The n words most similar to vector, e.g. a sum of word vectors as in WordVectors.wordsNearestSum
+   */
+  public List<String> wordsNearest(INDArray vector, int n) {
+    float[] query = vector.dup().data().asFloat();
+    normalize(query);
+    List<String> nearest = new ArrayList<>(n);
+    for (int node : search(query, n)) {
+      nearest.add(words[node]);
+    }
+    return nearest;
+  }
+
+  /**
+   * Nearest words of many words, split into contiguous ranges answered on numThreads threads
+   *
+   * @return For every word, its n nearest words in the same order
+   */
+  public List<List<String>> wordsNearest(final List<String> queries, final int n, int numThreads) throws Exception {
+    final List<List<String>> results = new ArrayList<>(queries.size());
+    for (int i = 0; i < queries.size(); i++) {
+      results.add(null);
+    }
+    ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> futures = new ArrayList<>();
+    int shardSize = (queries.size() + numThreads - 1) / numThreads;
+    for (int start = 0; start < queries.size(); start += shardSize) {
+      final int from = start;
+      final int to = Math.min(queries.size(), start + shardSize);
+      futures.add(workers.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = from; i < to; i++) {
+            results.set(i, wordsNearest(queries.get(i), n));
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } finally {
+      workers.shutdownNow();
+    }
+    return results;
+  }
+
+  /**
+   * Compare the index with an exact scan of all vectors for numQueries random words, and log the latency of both
+   *
+   * @return Mean fraction of the exact top n that the index also returned, NaN if there are no words or no queries
+   */
+  public double recall(int numQueries, int n, long seed) {
+    if (words.length == 0 || numQueries <= 0) {
+      log.warn("Recall not measured: {} words, {} queries", words.length, numQueries);
+      return Double.NaN;
+    }
+    Random random = new Random(seed);
+    double found = 0;
+    long[] indexNanos = new long[numQueries];
+    long exactNanos = 0;
+    for (int q = 0; q < numQueries; q++) {
+      String word = words[random.nextInt(words.length)];
+      long start = System.nanoTime();
+      List<String> approximate = wordsNearest(word, n);
+      indexNanos[q] = System.nanoTime() - start;
+      start = System.nanoTime();
+      List<String> exact = exactNearest(word, n);
+      exactNanos += System.nanoTime() - start;
+      int hits = 0;
+      for (String w : exact) {
+        if (approximate.contains(w)) {
+          hits++;
+        }
+      }
+      found += exact.isEmpty() ? 1 : hits / (double) exact.size();
+    }
+    double recall = found / numQueries;
+    Arrays.sort(indexNanos);
+    long total = 0;
+    for (long nanos : indexNanos) {
+      total += nanos;
+    }
+    log.info("Recall@{} over {} queries: {}; index: mean {} us, p99 {} us; exact scan: mean {} us", n, numQueries,
+        String.format("%.4f", recall), total / numQueries / 1000, indexNanos[(int) (numQueries * 0.99)] / 1000,
+        exactNanos / numQueries / 1000);
+    return recall;
+  }
+
+  /**
+   * @return Length of one array holding n vectors of size dim
+   * @throws IllegalStateException If that is more than a Java array can hold
+   */
+  private static int vectorsLength(int n, int dim) {
+    long length = (long) n * dim;
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException(n + " vectors of size " + dim + " are " + length
+          + " values, more than one array can hold");
+    }
+    return (int) length;
+  }
+
+  private List<String> exactNearest(String word, int n) {
+    int id = ids.get(word);
+    NodeHeap best = new NodeHeap(n + 2, false);
+    for (int node = 0; node < words.length; node++) {
+      if (node == id) {
+        continue;
+      }
+      float similarity = dot(vectors, id * dim, node);
+      if (best.size() < n || similarity > best.topScore()) {
+        best.push(node, similarity);
+        if (best.size() > n) {
+          best.pop();
+        }
+      }
+    }
+    List<String> nearest = new ArrayList<>(n);
+    int[] sorted = best.sortedIds();
+    for (int i = 0; i < best.size(); i++) {
+      nearest.add(words[sorted[i]]);
+    }
+    return nearest;
+  }
+
+  /**
+   * Candidates kept by queries; higher is slower with better recall. Default 64
+   */
+  public void setEfSearch(int efSearch) {
+    this.efSearch = efSearch;
+  }
+
+  public int size() {
+    return words.length;
+  }
+
+  /**
+   * Load the index saved for modelFile, or build and save it if it is missing or was built for another version of the
+   * model file
+   */
+  public static WordVectorIndex openOrBuild(WordVectors vec, File modelFile, File indexFile, int m, int efConstruction,
+                                            int numThreads) throws Exception {
+    if (indexFile.exists()) {
+      try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+        if (in.readInt() == MAGIC && in.readLong() == modelFile.length() && in.readLong() == modelFile.lastModified()) {
+          return load(indexFile);
+        }
+      }
+    }
+    log.info("Building nearest-neighbour index {}", indexFile);
+    WordVectorIndex index = build(vec, m, efConstruction, numThreads, 42);
+    index.save(indexFile, modelFile);
+    return index;
+  }
+
+  /**
+   * Write the index to file (temporary file, then rename), tagged with the length and time of the model file it was
+   * built from
+   */
+  public void save(File file, File modelFile) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeLong(modelFile.length());
+      out.writeLong(modelFile.lastModified());
+      out.writeInt(words.length);
+      out.writeInt(dim);
+      out.writeInt(m);
+      out.writeInt(entryPoint);
+      out.writeInt(maxLevel);
+      for (int i = 0; i < words.length; i++) {
+        out.writeUTF(words[i]);
+        out.writeByte(levels[i]);
+        for (int d = 0; d < dim; d++) {
+          out.writeFloat(vectors[i * dim + d]);
+        }
+        for (int level = 0; level <= levels[i]; level++) {
+          int[] list = links[i][level];
+          out.writeShort(list[0]);
+          for (int j = 1; j <= list[0]; j++) {
+            out.writeInt(list[j]);
+          }
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static WordVectorIndex load(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a word vector index: " + file);
+      }
+      in.readLong();
+      in.readLong();
+      int n = in.readInt();
+      int dim = in.readInt();
+      int m = in.readInt();
+      int entryPoint = in.readInt();
+      int maxLevel = in.readInt();
+      String[] words = new String[n];
+      float[] vectors = new float[vectorsLength(n, dim)];
+      int[] levels = new int[n];
+      int[][][] links = new int[n][][];
+      for (int i = 0; i < n; i++) {
+        words[i] = in.readUTF();
+        levels[i] = in.readByte();
+        for (int d = 0; d < dim; d++) {
+          vectors[i * dim + d] = in.readFloat();
+        }
+        links[i] = new int[levels[i] + 1][];
+        for (int level = 0; level <= levels[i]; level++) {
+          int[] list = new int[1 + (level == 0 ? 2 * m : m)];
+          list[0] = in.readShort();
+          for (int j = 1; j <= list[0]; j++) {
+            list[j] = in.readInt();
+          }
+          links[i][level] = list;
+        }
+      }
+      WordVectorIndex index = new WordVectorIndex(words, dim, vectors, m, levels, links);
+      index.entryPoint = entryPoint;
+      index.maxLevel = maxLevel;
+      return index;
+    }
+  }
+
+  private float dot(float[] query, int offset, int node) {
+    int base = node * dim;
+    float sum = 0;
+    for (int d = 0; d < dim; d++) {
+      sum += query[offset + d] * vectors[base + d];
+    }
+    return sum;
+  }
+
+  private static void normalize(float[] v) {
+    double norm = 0;
+    for (float x : v) {
+      norm += x * x;
+    }
+    norm = Math.sqrt(norm);
+    if (norm > 0) {
+      for (int d = 0; d < v.length; d++) {
+        v[d] /= norm;
+      }
+    }
+  }
+
+  /**
+   * Per-thread visited marks (one int per node, cleared by bumping the epoch) and neighbour buffer
+   */
+  private static class Visited {
+    private final int[] marks;
+    private final int[] buffer = new int[1024];
+    private int epoch;
+
+    private Visited(int n) {
+      marks = new int[n];
+    }
+
+    private void clear() {
+      if (++epoch == 0) {
+        Arrays.fill(marks, 0);
+        epoch = 1;
+      }
+    }
+
+    /**
+     * @return false if node was already visited
+     */
+    private boolean add(int node) {
+      if (marks[node] == epoch) {
+        return false;
+      }
+      marks[node] = epoch;
+      return true;
+    }
+  }
+
+  /**
+   * Binary heap of node ids by similarity; max-heap when maxFirst, min-heap otherwise
+   */
+  private static class NodeHeap {
+    private int[] ids;
+    private float[] scores;
+    private int size;
+    private final boolean maxFirst;
+
+    private NodeHeap(int capacity, boolean maxFirst) {
+      this.ids = new int[Math.max(1, capacity)];
+      this.scores = new float[ids.length];
+      this.maxFirst = maxFirst;
+    }
+
+    private boolean above(float a, float b) {
+      return maxFirst ? a > b : a < b;
+    }
+
+    private void push(int id, float score) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        scores = Arrays.copyOf(scores, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (!above(score, scores[parent])) {
+          break;
+        }
+        ids[i] = ids[parent];
+        scores[i] = scores[parent];
+        i = parent;
+      }
+      ids[i] = id;
+      scores[i] = score;
+    }
+
+    private int pop() {
+      int top = ids[0];
+      size--;
+      int id = ids[size];
+      float score = scores[size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && above(scores[child + 1], scores[child])) {
+          child++;
+        }
+        if (!above(scores[child], score)) {
+          break;
+        }
+        ids[i] = ids[child];
+        scores[i] = scores[child];
+        i = child;
+      }
+      ids[i] = id;
+      scores[i] = score;
+      return top;
+    }
+
+    private float topScore() {
+      return scores[0];
+    }
+
+    private int size() {
+      return size;
+    }
+
+    /**
+     * @return The ids, most similar first (whatever the heap order); valid up to size()
+     */
+    private int[] sortedIds() {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Float.compare(scores[b], scores[a]);
+        }
+      });
+      int[] sorted = new int[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = ids[order[i]];
+      }
+      return sorted;
+    }
+
+    /**
+     * @return Id of the most similar node
+     */
+    private int best() {
+      if (maxFirst) {
+        return ids[0];
+      }
+      int best = 0;
+      for (int i = 1; i < size; i++) {
+        if (scores[i] > scores[best]) {
+          best = i;
+        }
+      }
+      return ids[best];
+    }
+  }
+}